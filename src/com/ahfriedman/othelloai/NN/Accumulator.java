@@ -0,0 +1,152 @@
+package com.ahfriedman.othelloai.NN;
+
+import java.util.Arrays;
+
+import com.ahfriedman.othelloai.models.State;
+
+/**
+ * Keeps the part of every node's sum that comes straight from the inputs up to date for one position, the way NNUE 
+ * networks keep their first layer, so a position does not have to be run through the network from scratch.
+ * <br />
+ * The sums are kept for AG1 (AG1's discs as 1 and AG2's as -1), so they do not change when the turn passes. The 
+ * network inputs are for the player to move, so they are flipped when AG2 is to move (see CompiledNetwork). When the 
+ * position changes, only the squares that changed are added in again. After a move that is the placed disc and the 
+ * flipped discs, and after a pass it is nothing. When so many squares changed that adding up the position again 
+ * would be cheaper (such as after jumping to another part of the search tree), it is refreshed from scratch instead. 
+ * It is also refreshed every REFRESH_INTERVAL updates, so that rounding in the updates does not build up. 
+ * <br />
+ * The sums are added up in a different order than running the position on its own, so the output can differ from 
+ * CompiledNetwork.evaluate(State) in the last bits. 
+ * <br />
+ * An accumulator is for one thread. 
+ */
+public class Accumulator {
+
+	/**
+	 * The most updates between refreshes
+	 */
+	public static final int REFRESH_INTERVAL = 256;
+
+	private final CompiledNetwork network;
+
+	/**
+	 * The sum of the connections from the inputs into each node after the inputs, for AG1
+	 */
+	final double[] sums;
+
+	/**
+	 * The discs of the position the sums are for
+	 */
+	private long ag1Discs, ag2Discs;
+
+	/**
+	 * The number of updates since the last refresh, or -1 if the sums have never been worked out
+	 */
+	private int updates = -1;
+
+	/**
+	 * How many times the sums have been refreshed and updated
+	 */
+	private long refreshes, incremental;
+
+	/**
+	 * @param network The network to keep sums for
+	 */
+	public Accumulator(CompiledNetwork network)
+	{
+		this.network = network;
+		this.sums = new double[network.getNodes() - CompiledNetwork.INPUTS];
+	}
+
+	/**
+	 * Runs the network on a state, updating the sums to it first. The same as CompiledNetwork.evaluate(State), 
+	 * apart from rounding. 
+	 * @param s The state
+	 * @return The output of the network, from -1 to 1
+	 */
+	public double evaluate(State s)
+	{
+		update(s.getDiscs(State.AG1), s.getDiscs(State.AG2));
+		return network.evaluate(this, s.getPlayer() == State.AG1);
+	}
+
+	/**
+	 * Brings the sums up to date with a position, adding in only the squares that changed since the last one, 
+	 * or refreshing if that would be cheaper
+	 * @param ag1 The discs of AG1
+	 * @param ag2 The discs of AG2
+	 */
+	public void update(long ag1, long ag2)
+	{
+		final long used = network.getUsedInputs();
+		final long changed = ((ag1 ^ ag1Discs) | (ag2 ^ ag2Discs)) & used;
+
+		if(updates < 0 || updates >= REFRESH_INTERVAL || Long.bitCount(changed) > Long.bitCount((ag1 | ag2) & used))
+		{
+			refresh(ag1, ag2);
+			return;
+		}
+
+		if(changed == 0)
+			return;
+
+		for(long m = changed; m != 0; m &= m - 1)
+		{
+			final int sq = Long.numberOfTrailingZeros(m);
+			network.addInput(sums, sq, input(ag1, ag2, sq) - input(ag1Discs, ag2Discs, sq));
+		}
+
+		ag1Discs = ag1;
+		ag2Discs = ag2;
+		updates++;
+		incremental++;
+	}
+
+	/**
+	 * Works out the sums for a position from scratch
+	 * @param ag1 The discs of AG1
+	 * @param ag2 The discs of AG2
+	 */
+	public void refresh(long ag1, long ag2)
+	{
+		Arrays.fill(sums, 0.0);
+
+		//Empty squares are 0, so only the discs on the board add anything
+		for(long m = (ag1 | ag2) & network.getUsedInputs(); m != 0; m &= m - 1)
+		{
+			final int sq = Long.numberOfTrailingZeros(m);
+			network.addInput(sums, sq, input(ag1, ag2, sq));
+		}
+
+		ag1Discs = ag1;
+		ag2Discs = ag2;
+		updates = 0;
+		refreshes++;
+	}
+
+	/**
+	 * Returns the input for a square for AG1
+	 */
+	private static int input(long ag1, long ag2, int sq)
+	{
+		return (int) ((ag1 >>> sq) & 1) - (int) ((ag2 >>> sq) & 1);
+	}
+
+	/**
+	 * Returns the network the sums are for
+	 * @return The network
+	 */
+	public CompiledNetwork getNetwork() { return network; }
+
+	/**
+	 * Returns how many times the sums have been worked out from scratch
+	 * @return The number of refreshes
+	 */
+	public long getRefreshes() { return refreshes; }
+
+	/**
+	 * Returns how many times the sums have been updated with only the squares that changed
+	 * @return The number of incremental updates
+	 */
+	public long getUpdates() { return incremental; }
+}
@@ -0,0 +1,22 @@
+package com.ahfriedman.othelloai.NN;
+
+/**
+ * Works out the value of one node for a whole batch of positions (see CompiledNetwork): tanh of the weighted sum of
+ * its parents. Every position adds its connections up in order, one at a time (sum = sum + weight * value), in the
+ * same order as running the position on its own.
+ */
+interface BatchKernel {
+
+	/**
+	 * Works out the value of a node for positions first up to count of a batch
+	 * @param values The node values, indexed by node * CompiledNetwork.BATCH + position
+	 * @param sources The parent node of each connection
+	 * @param weights The weight of each connection
+	 * @param from The first connection into the node
+	 * @param to One past the last connection into the node
+	 * @param first The first position
+	 * @param count One past the last position
+	 * @param row Where to write the values in values (the node * CompiledNetwork.BATCH)
+	 */
+	public void node(double[] values, int[] sources, double[] weights, int from, int to, int first, int count, int row);
+}
@@ -0,0 +1,360 @@
+package com.ahfriedman.othelloai.NN;
+
+import java.util.Arrays;
+
+import com.ahfriedman.othelloai.models.State;
+
+/**
+ * A network from a GeneticNNAgent flattened into arrays, so that running it does not walk any objects or allocate.
+ * <br />
+ * Nodes are numbered in topological order: the 64 inputs first (one per square, r * 8 + c), then every node that
+ * the output depends on, each after all of its parents, with the output last. The connections into each node are
+ * stored together (compressed sparse rows): the connections into node n are at offsets[n - INPUTS] up to
+ * offsets[n - INPUTS + 1] in sources (the parent node) and weights.
+ * <br />
+ * Many positions can also be run at once (see evaluate(long[], long[], int, double[])). The values for a batch are 
+ * stored node by node, with the positions next to each other, so a node's sum can be worked out for several positions 
+ * at once with SIMD instructions (see VectorKernel), or at least without each sum waiting on the last (see ScalarKernel). 
+ * <br />
+ * The connections are also stored split in two, so an Accumulator can keep the part of each sum that comes from the 
+ * inputs up to date as moves are made: the connections from each input, grouped by input, and the connections from 
+ * other nodes, grouped by the node they go into. 
+ * <br />
+ * Values are worked out in scratch arrays kept for each thread, so a network can be run by many threads at once.
+ */
+public class CompiledNetwork {
+
+	/**
+	 * The number of inputs, one for each square
+	 */
+	public static final int INPUTS = 64;
+
+	/**
+	 * The most positions run through the network at once. Bigger batches are split up. Positions almost never have 
+	 * more legal moves than this, so every move of a position is usually one batch. 
+	 */
+	public static final int BATCH = 32;
+
+	private final int nodes;
+	private final int[] offsets;
+	private final int[] sources;
+	private final double[] weights;
+
+	/**
+	 * The inputs that are the parent of at least one connection. Evolved networks only use a few squares, and 
+	 * the rest are never read, so they are not filled in. 
+	 */
+	private final int[] inputs;
+	private final long used;
+
+	/**
+	 * The connections from each input square: those from square sq are at inputOffsets[sq] up to inputOffsets[sq + 1] 
+	 * in inputTargets (the node they go into, less INPUTS) and inputWeights
+	 */
+	private final int[] inputOffsets;
+	private final int[] inputTargets;
+	private final double[] inputWeights;
+
+	/**
+	 * The connections from nodes after the inputs, stored the same way as all of the connections
+	 */
+	private final int[] hiddenOffsets;
+	private final int[] hiddenSources;
+	private final double[] hiddenWeights;
+
+	/**
+	 * Works out the nodes for a batch. The Vector API kernel is used if the jdk.incubator.vector module is 
+	 * available, and the scalar kernel otherwise. 
+	 */
+	private static final BatchKernel KERNEL = loadKernel();
+
+	/**
+	 * Space for each thread to work out node values in
+	 */
+	private final ThreadLocal<Scratch> scratch;
+
+	private static final class Scratch
+	{
+		/**
+		 * The value of each node for one position
+		 */
+		final double[] values;
+
+		/**
+		 * The value of each node for a batch of positions, indexed by node * BATCH + position
+		 */
+		final double[] batch;
+
+		/**
+		 * The children of a position being searched for the best move: the move, the discs of each player after it, 
+		 * and the output for it
+		 */
+		final int[] moves = new int[64];
+		final long[] own = new long[64];
+		final long[] opp = new long[64];
+		final double[] out = new double[64];
+
+		Scratch(int nodes)
+		{
+			values = new double[nodes];
+			batch = new double[nodes * BATCH];
+		}
+	}
+
+	/**
+	 * @param nodes The number of nodes, including the inputs
+	 * @param offsets Where the connections into each node after the inputs start, with one extra entry for the end
+	 * @param sources The parent node of each connection
+	 * @param weights The weight of each connection
+	 */
+	public CompiledNetwork(int nodes, int[] offsets, int[] sources, double[] weights)
+	{
+		this.nodes = nodes;
+		this.offsets = offsets;
+		this.sources = sources;
+		this.weights = weights;
+
+		long used = 0;
+		for(int source : sources)
+			if(source < INPUTS)
+				used |= 1L << source;
+		this.used = used;
+		this.inputs = new int[Long.bitCount(used)];
+		for(int i = 0; used != 0; used &= used - 1)
+			inputs[i++] = Long.numberOfTrailingZeros(used);
+
+		//Split the connections by whether they come from an input
+		final int fromInputs = (int) Arrays.stream(sources).filter(source -> source < INPUTS).count();
+
+		this.inputOffsets = new int[INPUTS + 1];
+		this.inputTargets = new int[fromInputs];
+		this.inputWeights = new double[fromInputs];
+		this.hiddenOffsets = new int[nodes - INPUTS + 1];
+		this.hiddenSources = new int[sources.length - fromInputs];
+		this.hiddenWeights = new double[sources.length - fromInputs];
+
+		for(int source : sources)
+			if(source < INPUTS)
+				inputOffsets[source + 1]++;
+		for(int sq = 0; sq < INPUTS; sq++)
+			inputOffsets[sq + 1] += inputOffsets[sq];
+
+		final int[] next = Arrays.copyOf(inputOffsets, INPUTS);
+		int hidden = 0;
+		for(int n = INPUTS; n < nodes; n++)
+		{
+			for(int i = offsets[n - INPUTS]; i < offsets[n - INPUTS + 1]; i++)
+			{
+				if(sources[i] < INPUTS)
+				{
+					final int j = next[sources[i]]++;
+					inputTargets[j] = n - INPUTS;
+					inputWeights[j] = weights[i];
+				}
+				else
+				{
+					hiddenSources[hidden] = sources[i];
+					hiddenWeights[hidden] = weights[i];
+					hidden++;
+				}
+			}
+			hiddenOffsets[n - INPUTS + 1] = hidden;
+		}
+
+		this.scratch = ThreadLocal.withInitial(() -> new Scratch(nodes));
+	}
+
+	/**
+	 * Runs the network on a state. The input for each tile is 1 if it belongs to the player to move, -1 if it
+	 * belongs to the other player, and 0 if it is empty.
+	 * @param s The state
+	 * @return The output of the network, from -1 to 1
+	 */
+	public double evaluate(State s)
+	{
+		return evaluate(s.getDiscs(s.getPlayer()), s.getDiscs(State.other(s.getPlayer())));
+	}
+
+	/**
+	 * Runs the network on a position
+	 * @param own The discs of the player to move, which are input as 1
+	 * @param opp The discs of the other player, which are input as -1
+	 * @return The output of the network, from -1 to 1
+	 */
+	public double evaluate(long own, long opp)
+	{
+		final double[] values = scratch.get().values;
+
+		for(int sq : inputs)
+			values[sq] = (int) ((own >>> sq) & 1) - (int) ((opp >>> sq) & 1);
+
+		for(int n = INPUTS; n < nodes; n++)
+		{
+			final int end = offsets[n - INPUTS + 1];
+
+			double sum = 0.0;
+			for(int i = offsets[n - INPUTS]; i < end; i++)
+				sum += weights[i] * values[sources[i]];
+
+			values[n] = Math.tanh(sum);
+		}
+
+		return values[nodes - 1];
+	}
+
+	/**
+	 * Runs the network on the position an accumulator is for, taking the part of each sum from the inputs from it
+	 * @param acc The accumulator, which must be for this network
+	 * @param ag1ToMove Whether AG1 is to move. The accumulator's sums are for AG1, so they are flipped if not.
+	 * @return The output of the network, from -1 to 1
+	 */
+	double evaluate(Accumulator acc, boolean ag1ToMove)
+	{
+		final double[] values = scratch.get().values;
+		final double[] sums = acc.sums;
+		final double sign = ag1ToMove ? 1.0 : -1.0;
+
+		for(int n = INPUTS; n < nodes; n++)
+		{
+			final int end = hiddenOffsets[n - INPUTS + 1];
+
+			double sum = sign * sums[n - INPUTS];
+			for(int i = hiddenOffsets[n - INPUTS]; i < end; i++)
+				sum += hiddenWeights[i] * values[hiddenSources[i]];
+
+			values[n] = Math.tanh(sum);
+		}
+
+		return values[nodes - 1];
+	}
+
+	/**
+	 * Adds the connections from an input square into a set of sums
+	 * @param sums The sums for each node after the inputs
+	 * @param sq The square
+	 * @param value How much the square's input changed by
+	 */
+	void addInput(double[] sums, int sq, int value)
+	{
+		final int end = inputOffsets[sq + 1];
+		for(int i = inputOffsets[sq]; i < end; i++)
+			sums[inputTargets[i]] += value * inputWeights[i];
+	}
+
+	/**
+	 * Runs the network on a batch of positions. With the scalar kernel, this gives exactly the same outputs as running 
+	 * each one on its own. The Vector API kernel can differ in the last bit (see VectorKernel). 
+	 * @param own The discs of the player to move in each position, which are input as 1
+	 * @param opp The discs of the other player in each position, which are input as -1
+	 * @param count The number of positions
+	 * @param out The array to write the output for each position to
+	 */
+	public void evaluate(long[] own, long[] opp, int count, double[] out)
+	{
+		final double[] values = scratch.get().batch;
+
+		for(int start = 0; start < count; start += BATCH)
+			evaluateBatch(own, opp, start, Math.min(BATCH, count - start), out, values);
+	}
+
+	/**
+	 * Runs the network on up to BATCH positions, starting from the given one
+	 */
+	private void evaluateBatch(long[] own, long[] opp, int start, int count, double[] out, double[] values)
+	{
+		//Encode every position into the input rows
+		for(int sq : inputs)
+		{
+			final int row = sq * BATCH;
+			for(int b = 0; b < count; b++)
+				values[row + b] = (int) ((own[start + b] >>> sq) & 1) - (int) ((opp[start + b] >>> sq) & 1);
+		}
+
+		for(int n = INPUTS; n < nodes; n++)
+		{
+			final int row = n * BATCH;
+
+			KERNEL.node(values, sources, weights, offsets[n - INPUTS], offsets[n - INPUTS + 1], 0, count, row);
+		}
+
+		final int output = (nodes - 1) * BATCH;
+		for(int b = 0; b < count; b++)
+			out[start + b] = values[output + b];
+	}
+
+	/**
+	 * Finds the move whose resulting position the network scores highest, running every resulting position as one batch. 
+	 * The network scores a position for the player who just moved (see GeneticNNAgent.feedforward). Ties go to 
+	 * the lowest square. 
+	 * @param own The discs of the player to move
+	 * @param opp The discs of the other player
+	 * @return The best move (r * 8 + c), or -1 if the player has no moves
+	 */
+	public int bestMove(long own, long opp)
+	{
+		final Scratch s = scratch.get();
+
+		//The other player is to move after each of our moves
+		int count = 0;
+		for(long m = State.getMoveMask(own, opp); m != 0; m &= m - 1)
+		{
+			final int sq = Long.numberOfTrailingZeros(m);
+			final long flips = State.getFlips(own, opp, sq);
+
+			s.moves[count] = sq;
+			s.own[count] = opp & ~flips;
+			s.opp[count] = own | flips | (1L << sq);
+			count++;
+		}
+
+		if(count == 0)
+			return -1;
+
+		evaluate(s.own, s.opp, count, s.out);
+
+		int best = 0;
+		for(int i = 1; i < count; i++)
+			if(s.out[i] > s.out[best])
+				best = i;
+		return s.moves[best];
+	}
+
+	/**
+	 * Loads the Vector API kernel if we can, falling back to the scalar kernel
+	 */
+	private static BatchKernel loadKernel()
+	{
+		try
+		{
+			return (BatchKernel) Class.forName("com.ahfriedman.othelloai.NN.VectorKernel").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError | RuntimeException e)
+		{
+			return new ScalarKernel();
+		}
+	}
+
+	/**
+	 * Returns whether batches are added up with the Vector API
+	 * @return true if the Vector API kernel is in use; false if the scalar kernel is
+	 */
+	public static boolean isVectorized() { return !(KERNEL instanceof ScalarKernel); }
+
+	/**
+	 * Returns the squares whose inputs are used by at least one connection
+	 * @return The squares, as a bitboard
+	 */
+	public long getUsedInputs() { return used; }
+
+	/**
+	 * Returns the number of nodes, including the inputs
+	 * @return The number of nodes
+	 */
+	public int getNodes() { return nodes; }
+
+	/**
+	 * Returns the number of connections
+	 * @return The number of connections
+	 */
+	public int getConnections() { return sources.length; }
+}
@@ -0,0 +1,106 @@
+package com.ahfriedman.othelloai.NN;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.ahfriedman.othelloai.agents.GeneticNNAgent;
+import com.ahfriedman.othelloai.models.State;
+
+/**
+ * Converts serialised GeneticNNAgents into model files (see ModelFile), writing each one next to the original with 
+ * EXTENSION added. The originals are left alone, and GeneticNNAgent.loadFromFile reads either. 
+ * <br />
+ * Each converted model is loaded back and checked against the original on random positions. Weights are stored as 
+ * floats, so the outputs differ a little, and this prints the largest difference along with how often the two pick 
+ * a different move. It then prints the size of the files and how long they take to load each way. 
+ * <br />
+ * Usage: ModelConverter [serialised agents or directories of them...] (p0 and p1 by default)
+ */
+public class ModelConverter {
+
+	/**
+	 * Added to the name of each converted file
+	 */
+	public static final String EXTENSION = ".nnm";
+
+	/**
+	 * The number of random positions each model is checked on
+	 */
+	private static final int POSITIONS = 1000;
+
+	public static void main(String... args) throws ClassNotFoundException, IOException
+	{
+		final List<File> files = new ArrayList<File>();
+		for(String arg : (args.length > 0) ? args : new String[] {"p0", "p1"})
+		{
+			final File f = new File(arg);
+			if(f.isDirectory())
+			{
+				final File[] contents = f.listFiles((dir, name) -> name.contains(".bin") && !name.endsWith(EXTENSION));
+				Arrays.sort(contents);
+				files.addAll(Arrays.asList(contents));
+			}
+			else
+				files.add(f);
+		}
+
+		long oldBytes = 0, newBytes = 0;
+		long oldNanos = 0, newNanos = 0;
+		double maxDiff = 0;
+		int moves = 0, differentMoves = 0;
+		for(File f : files)
+		{
+			if(ModelFile.isModelFile(f))
+			{
+				System.out.println("Already a model file: " + f);
+				continue;
+			}
+
+			final File converted = new File(f.getPath() + EXTENSION);
+
+			long t = System.nanoTime();
+			final GeneticNNAgent original = GeneticNNAgent.loadFromFile(f.getPath());
+			oldNanos += System.nanoTime() - t;
+
+			original.saveModel(converted);
+
+			t = System.nanoTime();
+			final GeneticNNAgent loaded = GeneticNNAgent.loadFromFile(converted.getPath());
+			newNanos += System.nanoTime() - t;
+
+			oldBytes += f.length();
+			newBytes += converted.length();
+
+			//Compare the two on the same random positions
+			final CompiledNetwork a = original.compile();
+			final CompiledNetwork b = loaded.compile();
+			final Random random = new Random(f.getName().hashCode());
+			for(int i = 0; i < POSITIONS; i++)
+			{
+				final long own = random.nextLong();
+				final long opp = random.nextLong() & ~own;
+
+				maxDiff = Math.max(maxDiff, Math.abs(a.evaluate(own, opp) - b.evaluate(own, opp)));
+				if(State.getMoveMask(own, opp) != 0)
+				{
+					moves++;
+					if(a.bestMove(own, opp) != b.bestMove(own, opp))
+						differentMoves++;
+				}
+			}
+
+			System.out.println(f + " -> " + converted);
+		}
+
+		if(files.isEmpty())
+			return;
+
+		System.out.printf("%d files: %d bytes -> %d bytes%n", files.size(), oldBytes, newBytes);
+		System.out.printf("load time: %.3f ms serialised, %.3f ms model file%n", oldNanos / 1e6, newNanos / 1e6);
+		System.out.printf("largest output difference %g, %d of %d moves differ%n", maxDiff, differentMoves, moves);
+	}
+}
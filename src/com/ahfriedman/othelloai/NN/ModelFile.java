@@ -0,0 +1,292 @@
+package com.ahfriedman.othelloai.NN;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A network stored in a compact binary file, read through a memory mapping. The arrays are read straight from the 
+ * mapping rather than copied out of it first, and compile builds the network for inference from them directly. 
+ * Inference works in doubles, so compiling still has to copy each weight once. 
+ * <br />
+ * Every value is little-endian, and every value is 4 bytes, so each array is aligned: 
+ * <ul>
+ * <li>The magic number ("NNM" and a 0 byte, see MAGIC) and the version of the format</li>
+ * <li>The number of layers, nodes, and connections, and the index of the output node</li>
+ * <li>The number of nodes in each layer. Nodes are numbered layer by layer, with the inputs (one per square) first.</li>
+ * <li>Where the connections into each node start, with one extra entry for the end (compressed sparse rows)</li>
+ * <li>The parent node of each connection</li>
+ * <li>The weight of each connection, as a float</li>
+ * <li>The CRC-32 of everything before it</li>
+ * </ul>
+ */
+public class ModelFile {
+
+	/**
+	 * The first four bytes of every model file ("NNM" and a 0 byte, read little-endian), and the version of the format
+	 */
+	public static final int MAGIC = 0x004D4E4E;
+	public static final int VERSION = 1;
+
+	/**
+	 * The number of ints before the layer sizes
+	 */
+	private static final int HEADER = 6;
+
+	private final int[] layers;
+	private final int output;
+	private final IntBuffer offsets;
+	private final IntBuffer sources;
+	private final FloatBuffer weights;
+
+	private ModelFile(int[] layers, int output, IntBuffer offsets, IntBuffer sources, FloatBuffer weights)
+	{
+		this.layers = layers;
+		this.output = output;
+		this.offsets = offsets;
+		this.sources = sources;
+		this.weights = weights;
+	}
+
+	/**
+	 * Maps a model file into memory and checks it
+	 * @param file The model file
+	 * @return The model, whose arrays are read straight from the mapping
+	 * @throws IOException If the file cannot be read, is not a model file, or is corrupt
+	 */
+	public static ModelFile map(File file) throws IOException
+	{
+		final ByteBuffer buffer;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+		{
+			//The mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		if(buffer.limit() < 4 * (HEADER + 1) || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a model file: " + file);
+
+		final int version = buffer.getInt(4);
+		if(version != VERSION)
+			throw new IOException("Unsupported model version " + version + ": " + file);
+
+		final int layerCount = buffer.getInt(8);
+		final int nodes = buffer.getInt(12);
+		final int edges = buffer.getInt(16);
+		final int output = buffer.getInt(20);
+
+		final long length = 4L * (HEADER + layerCount + (nodes + 1) + 2L * edges + 1);
+		if(layerCount < 0 || nodes < 0 || edges < 0 || length != buffer.limit())
+			throw new IOException("Model file has the wrong length: " + file);
+
+		final CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate().position(0).limit(buffer.limit() - 4));
+		if((int) crc.getValue() != buffer.getInt(buffer.limit() - 4))
+			throw new IOException("Model file is corrupt: " + file);
+
+		final int[] layers = new int[layerCount];
+		long sum = 0;
+		for(int i = 0; i < layerCount; i++)
+		{
+			layers[i] = buffer.getInt(4 * (HEADER + i));
+			if(layers[i] < 0)
+				throw new IOException("Model file has a negative layer size: " + file);
+			sum += layers[i];
+		}
+		if(sum != nodes || output < 0 || output >= nodes)
+			throw new IOException("Model file has the wrong number of nodes: " + file);
+		if(layerCount == 0 || layers[0] != CompiledNetwork.INPUTS)
+			throw new IOException("Model file does not have " + CompiledNetwork.INPUTS + " inputs: " + file);
+
+		int position = 4 * (HEADER + layerCount);
+		final IntBuffer offsets = slice(buffer, position, nodes + 1).asIntBuffer();
+		position += 4 * (nodes + 1);
+		final IntBuffer sources = slice(buffer, position, edges).asIntBuffer();
+		position += 4 * edges;
+		final FloatBuffer weights = slice(buffer, position, edges).asFloatBuffer();
+
+		if(offsets.get(0) != 0 || offsets.get(nodes) != edges)
+			throw new IOException("Model file has the wrong number of connections: " + file);
+		for(int i = 0; i < nodes; i++)
+			if(offsets.get(i + 1) < offsets.get(i))
+				throw new IOException("Model file is corrupt: " + file);
+
+		//Every connection has to come from an earlier layer, so that listing the nodes layer by layer puts every node 
+		//after its parents (which compile relies on). This also means the inputs have no connections into them. 
+		int node = 0;
+		int start = 0;
+		for(int size : layers)
+		{
+			for(int end = node + size; node < end; node++)
+				for(int i = offsets.get(node); i < offsets.get(node + 1); i++)
+					if(sources.get(i) < 0 || sources.get(i) >= start)
+						throw new IOException("Model file has a connection that does not come from an earlier layer: " + file);
+			start = node;
+		}
+
+		return new ModelFile(layers, output, offsets, sources, weights);
+	}
+
+	/**
+	 * Builds the network for inference straight from the mapped arrays, without building the nodes and connections of a 
+	 * GeneticNNAgent first. This gives exactly the same network as GeneticNNAgent.compile on the agent loaded from the 
+	 * file: the inputs first, then every node the output depends on in layer order, with the output last. 
+	 * @return The compiled network
+	 */
+	public CompiledNetwork compile()
+	{
+		final int nodes = getNodes();
+
+		//Find every node the output depends on. Parents are always in earlier layers, so one pass back from the output finds them all. 
+		final boolean[] needed = new boolean[nodes];
+		needed[output] = true;
+		for(int n = nodes - 1; n >= 0; n--)
+			if(needed[n])
+				for(int i = offsets.get(n); i < offsets.get(n + 1); i++)
+					needed[sources.get(i)] = true;
+
+		//Number the inputs, then the needed nodes in order, with the output last
+		final int[] index = new int[nodes];
+		final int[] order = new int[nodes];
+		int count = 0;
+		for(int n = 0; n < CompiledNetwork.INPUTS; n++)
+			index[n] = count++;
+		for(int n = CompiledNetwork.INPUTS; n < nodes; n++)
+		{
+			if(n != output && needed[n])
+			{
+				order[count - CompiledNetwork.INPUTS] = n;
+				index[n] = count++;
+			}
+		}
+		order[count - CompiledNetwork.INPUTS] = output;
+		index[output] = count++;
+
+		int connections = 0;
+		for(int i = 0; i < count - CompiledNetwork.INPUTS; i++)
+			connections += offsets.get(order[i] + 1) - offsets.get(order[i]);
+
+		final int[] compiledOffsets = new int[count - CompiledNetwork.INPUTS + 1];
+		final int[] compiledSources = new int[connections];
+		final double[] compiledWeights = new double[connections];
+		int j = 0;
+		for(int i = 0; i < count - CompiledNetwork.INPUTS; i++)
+		{
+			compiledOffsets[i] = j;
+			for(int c = offsets.get(order[i]); c < offsets.get(order[i] + 1); c++)
+			{
+				compiledSources[j] = index[sources.get(c)];
+				compiledWeights[j] = weights.get(c);
+				j++;
+			}
+		}
+		compiledOffsets[count - CompiledNetwork.INPUTS] = j;
+
+		return new CompiledNetwork(count, compiledOffsets, compiledSources, compiledWeights);
+	}
+
+	/**
+	 * Returns a little-endian view of count ints from a position in a buffer
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int position, int count)
+	{
+		return buffer.duplicate().position(position).limit(position + 4 * count).slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Writes a model file
+	 * @param file The file to write
+	 * @param layers The number of nodes in each layer
+	 * @param output The index of the output node
+	 * @param offsets Where the connections into each node start, with one extra entry for the end
+	 * @param sources The parent node of each connection
+	 * @param weights The weight of each connection, which is stored as a float
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(File file, int[] layers, int output, int[] offsets, int[] sources, double[] weights) throws IOException
+	{
+		final int nodes = offsets.length - 1;
+		final ByteBuffer buffer = ByteBuffer.allocate(4 * (HEADER + layers.length + offsets.length + 2 * sources.length + 1)).order(ByteOrder.LITTLE_ENDIAN);
+
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(layers.length).putInt(nodes).putInt(sources.length).putInt(output);
+		for(int size : layers)
+			buffer.putInt(size);
+		for(int offset : offsets)
+			buffer.putInt(offset);
+		for(int source : sources)
+			buffer.putInt(source);
+		for(double weight : weights)
+			buffer.putFloat((float) weight);
+
+		final CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int) crc.getValue());
+
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel())
+		{
+			channel.truncate(0);
+			channel.write(buffer.flip());
+		}
+	}
+
+	/**
+	 * Checks whether a file starts with the magic number of a model file
+	 * @param file The file
+	 * @return true if it looks like a model file; false otherwise
+	 * @throws IOException If the file cannot be read
+	 */
+	public static boolean isModelFile(File file) throws IOException
+	{
+		if(file.length() < 4)
+			return false;
+
+		try(DataInputStream in = new DataInputStream(new FileInputStream(file)))
+		{
+			return Integer.reverseBytes(in.readInt()) == MAGIC;
+		}
+	}
+
+	/**
+	 * Returns the number of nodes in each layer
+	 * @return The layer sizes
+	 */
+	public int[] getLayers() { return layers.clone(); }
+
+	/**
+	 * Returns the index of the output node
+	 * @return The output node
+	 */
+	public int getOutput() { return output; }
+
+	/**
+	 * Returns the number of nodes
+	 * @return The number of nodes
+	 */
+	public int getNodes() { return offsets.limit() - 1; }
+
+	/**
+	 * Returns where the connections into each node start, read from the file
+	 * @return The offsets, with one extra entry for the end
+	 */
+	public IntBuffer getOffsets() { return offsets.duplicate(); }
+
+	/**
+	 * Returns the parent node of each connection, read from the file
+	 * @return The sources
+	 */
+	public IntBuffer getSources() { return sources.duplicate(); }
+
+	/**
+	 * Returns the weight of each connection, read from the file
+	 * @return The weights
+	 */
+	public FloatBuffer getWeights() { return weights.duplicate(); }
+}
@@ -0,0 +1,40 @@
+package com.ahfriedman.othelloai.NN;
+
+/**
+ * Works out a batch without any SIMD. Four positions are added up together, so that each connection's weight is read 
+ * once for all four, and the four sums do not have to wait on each other. The results are exactly the same as 
+ * running each position on its own. 
+ */
+class ScalarKernel implements BatchKernel {
+
+	@Override
+	public void node(double[] values, int[] sources, double[] weights, int from, int to, int first, int count, int row)
+	{
+		int b = first;
+		for(; b + 4 <= count; b += 4)
+		{
+			double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+			for(int i = from; i < to; i++)
+			{
+				final double w = weights[i];
+				final int source = sources[i] * CompiledNetwork.BATCH + b;
+				s0 += w * values[source];
+				s1 += w * values[source + 1];
+				s2 += w * values[source + 2];
+				s3 += w * values[source + 3];
+			}
+			values[row + b] = Math.tanh(s0);
+			values[row + b + 1] = Math.tanh(s1);
+			values[row + b + 2] = Math.tanh(s2);
+			values[row + b + 3] = Math.tanh(s3);
+		}
+
+		for(; b < count; b++)
+		{
+			double sum = 0.0;
+			for(int i = from; i < to; i++)
+				sum += weights[i] * values[sources[i] * CompiledNetwork.BATCH + b];
+			values[row + b] = Math.tanh(sum);
+		}
+	}
+}
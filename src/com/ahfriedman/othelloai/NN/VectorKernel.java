@@ -0,0 +1,44 @@
+package com.ahfriedman.othelloai.NN;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Works out a batch with the Vector API, one SIMD lane per position. The sums for a vector of positions stay in a 
+ * register while every connection is added to them, and tanh is worked out for the whole vector at once, which 
+ * is many times faster than Math.tanh. The vector tanh can differ from Math.tanh in the last bit, so outputs can 
+ * differ very slightly from running positions on their own. 
+ * <br />
+ * jdk.incubator.vector is an incubator module, so it has to be added with --add-modules jdk.incubator.vector 
+ * when compiling and running. If it is not, CompiledNetwork cannot load this class, and uses ScalarKernel instead. 
+ */
+class VectorKernel implements BatchKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	VectorKernel()
+	{
+		//With one lane, this would only be a slower scalar kernel
+		if(SPECIES.length() < 2)
+			throw new UnsupportedOperationException("No SIMD lanes for doubles");
+	}
+
+	@Override
+	public void node(double[] values, int[] sources, double[] weights, int from, int to, int first, int count, int row)
+	{
+		for(int b = first; b < count; b += SPECIES.length())
+		{
+			//The last vector of a batch is usually only partly used, so only its lanes for real positions are read
+			final VectorMask<Double> lanes = SPECIES.indexInRange(b, count);
+
+			//Multiply then add, rather than a fused multiply-add, so the sums round the same as the scalar sums
+			DoubleVector sum = DoubleVector.zero(SPECIES);
+			for(int i = from; i < to; i++)
+				sum = sum.add(DoubleVector.fromArray(SPECIES, values, sources[i] * CompiledNetwork.BATCH + b, lanes).mul(weights[i]));
+
+			sum.lanewise(VectorOperators.TANH).intoArray(values, row + b, lanes);
+		}
+	}
+}
@@ -12,6 +12,18 @@ public interface Agent {
 
 	public byte[] RunMove(State s);
 
+	/**
+	 * Called after we move, so that the agent can think about its next move while the opponent thinks about theirs. 
+	 * Agents that do not search do nothing. 
+	 * @param s The state after our move, with the opponent to move
+	 */
+	public default void Ponder(State s) {}
+
+	/**
+	 * Called when the opponent's move arrives, before it is applied. Stops anything Ponder started. 
+	 */
+	public default void StopPondering() {}
+
 	public List<Agent> produce() throws IOException, ClassNotFoundException;
 	
 	public Agent mutateOne() throws IOException, ClassNotFoundException;
@@ -2,15 +2,25 @@ package com.ahfriedman.othelloai.agents;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import com.ahfriedman.othelloai.models.Game;
+import com.ahfriedman.othelloai.NN.CompiledNetwork;
+import com.ahfriedman.othelloai.NN.ModelFile;
 import com.ahfriedman.othelloai.models.State;
 
 public class GeneticNNAgent implements Agent, Serializable
@@ -23,6 +33,12 @@ public class GeneticNNAgent implements Agent, Serializable
 	private Node output;
 	private List<List<Node>> nodes; 
 
+	/**
+	 * The network flattened for inference, or null if it has not been compiled since it last changed. 
+	 * This is not saved with the agent, as it can always be compiled again. 
+	 */
+	private transient volatile CompiledNetwork compiled; 
+
 	public GeneticNNAgent()
 	{
 
@@ -48,6 +64,16 @@ public class GeneticNNAgent implements Agent, Serializable
 
 
 
+	}
+
+	/**
+	 * Creates an agent from a network that has already been built
+	 */
+	private GeneticNNAgent(List<List<Node>> nodes, Node output, CompiledNetwork compiled)
+	{
+		this.nodes = nodes; 
+		this.output = output; 
+		this.compiled = compiled; 
 	}
 
 	public GeneticNNAgent mutate(int times)
@@ -70,6 +96,8 @@ public class GeneticNNAgent implements Agent, Serializable
 			}
 		}
 
+		//The network has changed, so it has to be compiled again
+		compiled = null; 
 		return this; 
 	}
 
@@ -78,74 +106,98 @@ public class GeneticNNAgent implements Agent, Serializable
 	 * @return 
 	 */
 	public byte[] RunMove(State s) { //FIXME: TRY WRITING FILES BETTER? Way to lock file?
-		//Search for a good move
-		//		return IterativeSearch.IterativeABSearch(OthelloAI.STATE);
+		//Score the state after each of our moves all at once, and take the best
+		final int sq = compile().bestMove(s.getDiscs(s.getPlayer()), s.getDiscs(State.other(s.getPlayer())));
 
-		//		final LinkedList<Node> queue = new LinkedList<Node>();
+		if(sq < 0)
+			return null; //Passing
 
-		final List<byte[]> moves = Game.actions(s);
+		return State.squareToAction(sq);
+	}
 
-		if(moves.isEmpty())
-			return null; //Passing
 
-		byte[] move = null; 
-		double value = Integer.MIN_VALUE;
+	/**
+	 * Runs the network on a state. The input for each tile is 1 if it belongs to the player to move, -1 if it 
+	 * belongs to the other player, and 0 if it is empty. RunMove picks the move whose resulting state scores highest, 
+	 * so a high score is good for the player who just moved. 
+	 * @param s The state
+	 * @return The output of the network, from -1 to 1
+	 */
+	public double feedforward(State s) {
+		return compile().evaluate(s);
+	}
 
-		for(byte[] b : moves)
+	/**
+	 * Flattens the network into arrays for inference (see CompiledNetwork). The result is kept until the network 
+	 * is mutated, so this only does any work the first time it is called after a change. 
+	 * <br />
+	 * Every connection goes from a lower layer to a higher one, so listing the nodes layer by layer puts every node 
+	 * after its parents. Nodes that the output does not depend on are left out. 
+	 * @return The compiled network
+	 */
+	public CompiledNetwork compile() {
+		CompiledNetwork ans = compiled; 
+		if(ans != null)
+			return ans; 
+
+		//Find every node the output depends on
+		final Set<Node> needed = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+		final ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		needed.add(output);
+		queue.add(output);
+		while(!queue.isEmpty())
 		{
-			double cv = feedforward(Game.result(s, b));
-
-			if(cv > value || move == null)
+			for(Connection c : queue.poll().parents)
 			{
-				move = b;
-				value = cv; 
+				if(needed.add(c.parent))
+					queue.add(c.parent);
 			}
 		}
 
-
-		return move;
-	}
-
-
-	private double feedforward(State s) {
-		int ctr = 0; 
-
-		for(int r = 0; r < 8; r++)
+		//Number the inputs, then the needed nodes in topological order, with the output last
+		final Map<Node, Integer> index = new IdentityHashMap<Node, Integer>();
+		final List<Node> order = new ArrayList<Node>();
+		for(Node n : nodes.get(0))
+			index.put(n, index.size());
+		for(int r = 1; r < nodes.size(); r++)
 		{
-			for(int c = 0; c < 8; c++)
+			for(Node n : nodes.get(r))
 			{
-				final Node curr = nodes.get(0).get(ctr);
-
-				if(s.getBoard()[r][c] == State.CLR)
-					curr.value = 0;
-				else if(s.getBoard()[r][c] == s.getPlayer())
-					curr.value = 1; 
-				else
-					curr.value = -1; 
-				ctr++;
+				if(n != output && needed.contains(n))
+				{
+					index.put(n, index.size());
+					order.add(n);
+				}
 			}
 		}
-
-		for(int r = 1; r < nodes.size(); r ++)
+		index.put(output, index.size());
+		order.add(output);
+
+		int connections = 0; 
+		for(Node n : order)
+			connections += n.parents.size();
+
+		final int[] offsets = new int[order.size() + 1];
+		final int[] sources = new int[connections];
+		final double[] weights = new double[connections];
+		int i = 0; 
+		for(int n = 0; n < order.size(); n++)
 		{
-			for(int c = 0; c < nodes.get(r).size(); c++)
+			offsets[n] = i; 
+			for(Connection c : order.get(n).parents)
 			{
-				final Node curr = nodes.get(r).get(c);
-
-				curr.value = Math.tanh(curr.parents.stream().map(x -> {
-					return x.weight * x.parent.value; 
-				}).reduce(0.0, (a, b) -> a + b));
+				sources[i] = index.get(c.parent);
+				weights[i] = c.weight; 
+				i++;
 			}
 		}
+		offsets[order.size()] = i; 
 
-
-		return nodes.get(nodes.size() - 1).get(0).value;
+		ans = new CompiledNetwork(index.size(), offsets, sources, weights);
+		compiled = ans; 
+		return ans; 
 	}
 
-
-
-
-
 	private boolean MUTATE_ADD_SYNAPSE()
 	{
 		for(int t = 0; t < 100; t++)
@@ -333,17 +385,7 @@ public class GeneticNNAgent implements Agent, Serializable
 
 		for(int i = 0; i < 10 - 1; i++)
 		{
-			//https://stackoverflow.com/questions/64036/how-do-you-make-a-deep-copy-of-an-object
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			ObjectOutputStream oos = new ObjectOutputStream(bos);
-			oos.writeObject(this);
-			oos.flush();
-			oos.close();
-			bos.close();
-			byte[] byteData = bos.toByteArray();
-
-			ByteArrayInputStream bais = new ByteArrayInputStream(byteData);
-			GeneticNNAgent clone = (GeneticNNAgent) new ObjectInputStream(bais).readObject();
+			GeneticNNAgent clone = copy();
 
 			clone.mutate(1);
 			ans.add(clone);
@@ -356,25 +398,117 @@ public class GeneticNNAgent implements Agent, Serializable
 
 	//FIXME: MAKE POPULATE USE THIS?
 	public Agent mutateOne() throws IOException, ClassNotFoundException
+	{
+		GeneticNNAgent clone = copy();
+
+		clone.mutate(3);
+
+		return clone; 
+	}
+
+	/**
+	 * Copies the network node for node and connection for connection, without serialising it. The copy has the same 
+	 * layers, with the same nodes in the same order, and each node's connections in the same order, so it is exactly 
+	 * what a serialise and deserialise would give (see serialCopy), only much faster. 
+	 * <br />
+	 * The copy shares the compiled network, as it is never changed, and the copy compiles again once it is mutated. 
+	 * @return The copy
+	 */
+	public GeneticNNAgent copy()
+	{
+		final Map<Node, Node> copies = new IdentityHashMap<Node, Node>();
+		final Map<Connection, Connection> connections = new IdentityHashMap<Connection, Connection>();
+		final ArrayDeque<Node> queue = new ArrayDeque<Node>();
+
+		final List<List<Node>> layers = new ArrayList<List<Node>>(nodes.size());
+		for(List<Node> layer : nodes)
+		{
+			final List<Node> copy = new ArrayList<Node>(layer.size());
+			for(Node n : layer)
+				copy.add(copyOf(n, copies, queue));
+			layers.add(copy);
+		}
+		final Node out = copyOf(output, copies, queue);
+
+		//Copy the connections into each node, copying any node they reach that is not in a layer as well
+		while(!queue.isEmpty())
+		{
+			final Node n = queue.poll();
+			final Node copy = copies.get(n);
+
+			copy.parents = new ArrayList<Connection>(n.parents.size());
+			for(Connection c : n.parents)
+			{
+				Connection cc = connections.get(c);
+				if(cc == null)
+				{
+					cc = new Connection();
+					cc.weight = c.weight;
+					cc.parent = copyOf(c.parent, copies, queue);
+					cc.child = copyOf(c.child, copies, queue);
+					connections.put(c, cc);
+				}
+				copy.parents.add(cc);
+			}
+		}
+
+		return new GeneticNNAgent(layers, out, compiled);
+	}
+
+	/**
+	 * Returns the copy of a node, creating it (and queueing its connections to be copied) the first time it is reached
+	 */
+	private static Node copyOf(Node n, Map<Node, Node> copies, ArrayDeque<Node> queue)
+	{
+		if(n == null)
+			return null; 
+
+		Node copy = copies.get(n);
+		if(copy == null)
+		{
+			copy = new Node();
+			copy.value = n.value;
+			copies.put(n, copy);
+			queue.add(n);
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Copies the agent by serialising it and reading it back, which is how agents used to be copied. 
+	 * This is kept to check and benchmark copy against (see CloneBenchmark). 
+	 * @return The copy
+	 */
+	GeneticNNAgent serialCopy() throws IOException, ClassNotFoundException
 	{
 		//https://stackoverflow.com/questions/64036/how-do-you-make-a-deep-copy-of-an-object
+		return (GeneticNNAgent) new ObjectInputStream(new ByteArrayInputStream(serialise())).readObject();
+	}
+
+	/**
+	 * Serialises the agent
+	 * @return The serialised agent
+	 */
+	byte[] serialise() throws IOException
+	{
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		ObjectOutputStream oos = new ObjectOutputStream(bos);
 		oos.writeObject(this);
-		oos.flush();
 		oos.close();
-		bos.close();
-		byte[] byteData = bos.toByteArray();
-
-		ByteArrayInputStream bais = new ByteArrayInputStream(byteData);
-		GeneticNNAgent clone = (GeneticNNAgent) new ObjectInputStream(bais).readObject();
-
-		clone.mutate(3);
-
-		return clone; 
+		return bos.toByteArray();
 	}
+
+	/**
+	 * Loads an agent from a model file (see ModelFile), or from a serialised agent
+	 * @param file The file
+	 * @return The agent
+	 */
 	public static final GeneticNNAgent loadFromFile(String file) throws ClassNotFoundException, IOException
 	{
+		if(ModelFile.isModelFile(new File(file)))
+			return fromModel(ModelFile.map(new File(file)));
+
 		final FileInputStream fis = new FileInputStream(file);
 
 		GeneticNNAgent clone = (GeneticNNAgent) new ObjectInputStream(fis).readObject(); 
@@ -384,4 +518,100 @@ public class GeneticNNAgent implements Agent, Serializable
 		return clone; 
 	}
 
+	/**
+	 * Saves the network as a model file (see ModelFile). Weights are stored as floats, so they lose some precision. 
+	 * @param file The file to write
+	 * @throws IOException If the file cannot be written, or a connection comes from a node that is not in a layer
+	 */
+	public void saveModel(File file) throws IOException
+	{
+		//Number the nodes layer by layer
+		final Map<Node, Integer> index = new IdentityHashMap<Node, Integer>();
+		final int[] layers = new int[nodes.size()];
+		int connections = 0; 
+		for(int r = 0; r < nodes.size(); r++)
+		{
+			layers[r] = nodes.get(r).size();
+			for(Node n : nodes.get(r))
+			{
+				index.put(n, index.size());
+				connections += n.parents.size();
+			}
+		}
+
+		if(index.size() != Arrays.stream(layers).sum())
+			throw new IOException("A node is in more than one layer");
+
+		final Integer out = index.get(output);
+		if(out == null)
+			throw new IOException("The output is not in a layer");
+
+		final int[] offsets = new int[index.size() + 1];
+		final int[] sources = new int[connections];
+		final double[] weights = new double[connections];
+		int i = 0; 
+		int n = 0; 
+		for(List<Node> layer : nodes)
+		{
+			for(Node node : layer)
+			{
+				offsets[n++] = i; 
+				for(Connection c : node.parents)
+				{
+					final Integer source = index.get(c.parent);
+					if(source == null)
+						throw new IOException("A connection comes from a node that is not in a layer");
+
+					sources[i] = source;
+					weights[i] = c.weight; 
+					i++;
+				}
+			}
+		}
+		offsets[n] = i; 
+
+		ModelFile.write(file, layers, out, offsets, sources, weights);
+	}
+
+	/**
+	 * Builds an agent from a model file. The agent's network is compiled straight from the file (see ModelFile.compile). 
+	 * @param model The model
+	 * @return The agent
+	 */
+	public static GeneticNNAgent fromModel(ModelFile model)
+	{
+		final Node[] all = new Node[model.getNodes()];
+		for(int i = 0; i < all.length; i++)
+			all[i] = new Node();
+
+		final List<List<Node>> layers = new ArrayList<List<Node>>();
+		int n = 0; 
+		for(int size : model.getLayers())
+		{
+			final List<Node> layer = new ArrayList<Node>(size);
+			for(int i = 0; i < size; i++)
+				layer.add(all[n++]);
+			layers.add(layer);
+		}
+
+		final IntBuffer offsets = model.getOffsets();
+		final IntBuffer sources = model.getSources();
+		final FloatBuffer weights = model.getWeights();
+		for(int i = 0; i < all.length; i++)
+		{
+			final int end = offsets.get(i + 1);
+			all[i].parents = new ArrayList<Connection>(end - offsets.get(i));
+			for(int j = offsets.get(i); j < end; j++)
+			{
+				final Connection c = new Connection();
+				c.parent = all[sources.get(j)];
+				c.child = all[i];
+				c.weight = weights.get(j);
+				all[i].parents.add(c);
+			}
+		}
+
+		//Compile straight from the file, rather than walking the nodes we just built
+		return new GeneticNNAgent(layers, all[model.getOutput()], model.compile());
+	}
 }
@@ -4,24 +4,91 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.ahfriedman.othelloai.evaluation.Evaluator;
 import com.ahfriedman.othelloai.models.State;
 import com.ahfriedman.othelloai.searching.IterativeSearch;
+import com.ahfriedman.othelloai.searching.OpeningBook;
+import com.ahfriedman.othelloai.searching.SearchAlgorithm;
+import com.ahfriedman.othelloai.utils.Consts;
 
 public class SearchAgent implements Agent
 {	
 	private long t; 
 	
+	/**
+	 * The algorithm used to search each iteration
+	 */
+	private SearchAlgorithm algorithm; 
+	
+	/**
+	 * The evaluation function used by the search
+	 */
+	private Evaluator evaluator; 
+	
+	/**
+	 * The opening book, shared by every search agent, or null if there is no book file. 
+	 * The book is memory-mapped, so this only reads its header. 
+	 */
+	private static final OpeningBook BOOK = OpeningBook.loadIfExists(Consts.BOOK_FILE);
+	
+	/**
+	 * Time in milliseconds saved by playing book moves instead of searching, which is spent on later moves
+	 */
+	private long banked = 0; 
+	
 	public SearchAgent(long t)
+	{
+		this(t, Consts.SEARCH_ALGORITHM);
+	}
+	
+	public SearchAgent(long t, SearchAlgorithm algorithm)
+	{
+		this(t, algorithm, Evaluator.getDefault());
+	}
+	
+	public SearchAgent(long t, SearchAlgorithm algorithm, Evaluator evaluator)
 	{
 		this.t = t;
+		this.algorithm = algorithm; 
+		this.evaluator = evaluator; 
 	}
+	/**
+	 * Returns the evaluation function used by the search
+	 * @return The evaluator
+	 */
+	public Evaluator getEvaluator() { return evaluator; }
+	
 	/**
 	 * This function is used for our agent to pick and run a move
 	 * @return 
 	 */
 	public byte[] RunMove(State s) { //FIXME: TRY WRITING FILES BETTER? Way to lock file?
-		//Search for a good move
-		return IterativeSearch.IterativeABSearch(s, t);
+		//Book moves take no time, so we can give the time we would have searched for to the moves after the book
+		if(BOOK != null)
+		{
+			final byte[] move = BOOK.probe(s);
+			if(move != null)
+			{
+				banked += Math.max(0, t - Consts.TIME_MARGIN);
+				return move; 
+			}
+		}
+		
+		//Search for a good move, spending a share of the banked time
+		final long bonus = banked / Consts.BANKED_TIME_MOVES; 
+		banked -= bonus; 
+		return IterativeSearch.IterativeABSearch(s, t, algorithm, evaluator, bonus);
+	}
+	
+	@Override
+	public void Ponder(State s) {
+		if(Consts.PONDER)
+			IterativeSearch.startPondering(s, algorithm, evaluator);
+	}
+	
+	@Override
+	public void StopPondering() {
+		IterativeSearch.stopPondering();
 	}
 
 	@Override
@@ -36,7 +103,7 @@ public class SearchAgent implements Agent
 		return null;
 	}
 	public Agent duplicate() {
-		return new SearchAgent(t);
+		return new SearchAgent(t, algorithm, evaluator);
 	}
 
 }
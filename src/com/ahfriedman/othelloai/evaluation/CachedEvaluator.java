@@ -0,0 +1,91 @@
+package com.ahfriedman.othelloai.evaluation;
+
+import com.ahfriedman.othelloai.models.State;
+import com.ahfriedman.othelloai.utils.Consts;
+
+/**
+ * Remembers the evaluations of another evaluator in an EvaluationCache. Iterative deepening evaluates the same
+ * positions again on every iteration (to order moves, and at the leaves), and the same position is often reached
+ * through different lines, so most evaluations can be read back instead of being worked out again.
+ * <br />
+ * Positions are keyed by their Zobrist hash, along with which player they are evaluated for. If the evaluator is 
+ * symmetric, positions near the opening (up to Consts.EVAL_CACHE_CANONICAL_DISCS discs) are keyed by their canonical 
+ * hash instead, so that all eight symmetric copies of a position share one evaluation. Later in the game, symmetric 
+ * copies are too rare to be worth working out the canonical hash for. A position's canonical hash is the plain hash 
+ * of a copy with the same number of discs, so the two kinds of key never mix up positions.
+ */
+public class CachedEvaluator implements Evaluator {
+
+	/**
+	 * The pattern evaluator if there is a weights file, and the heuristic otherwise, cached. 
+	 * null if Consts.EVAL_CACHE_MEGABYTES is 0. 
+	 */
+	public static final CachedEvaluator DEFAULT = (Consts.EVAL_CACHE_MEGABYTES <= 0) ? null : new CachedEvaluator(
+			(PatternEvaluator.DEFAULT != null) ? PatternEvaluator.DEFAULT : HeuristicEvaluator.DEFAULT, Consts.EVAL_CACHE_MEGABYTES);
+
+	/**
+	 * XORed into the key of evaluations for AG2, so that evaluations for each player are kept apart
+	 */
+	private static final long AG2_KEY = 0x3C6EF372FE94F82BL;
+
+	private final Evaluator evaluator;
+	private final EvaluationCache cache;
+
+	/**
+	 * Whether the evaluator is symmetric, and the most discs a position can have to be keyed by its canonical hash
+	 * (0 if the evaluator is not symmetric)
+	 */
+	private final boolean symmetric;
+	private final int canonicalDiscs;
+
+	/**
+	 * @param evaluator The evaluator to cache the evaluations of
+	 * @param megabytes The memory budget of the cache in megabytes
+	 */
+	public CachedEvaluator(Evaluator evaluator, int megabytes)
+	{
+		this.evaluator = evaluator;
+		this.cache = new EvaluationCache(megabytes);
+		this.symmetric = evaluator.isSymmetric();
+		this.canonicalDiscs = symmetric ? Consts.EVAL_CACHE_CANONICAL_DISCS : 0;
+	}
+
+	@Override
+	public float evaluate(State s, byte player)
+	{
+		final long hash = (s.getPlayerTiles() + s.getOpponentTiles() <= canonicalDiscs) ? s.getCanonicalHash() : s.getHash();
+		final long key = hash ^ ((player == State.AG2) ? AG2_KEY : 0);
+
+		final long entry = cache.probe(key);
+		if(entry != 0)
+			return EvaluationCache.score(entry);
+
+		final float v = evaluator.evaluate(s, player);
+		cache.store(key, v);
+		return v;
+	}
+
+	/**
+	 * Turns counting on or off for the evaluator being cached. Only evaluations that miss the cache are counted.
+	 */
+	@Override
+	public void setCounting(boolean counting) { evaluator.setCounting(counting); }
+
+	@Override
+	public FeatureCounters getCounters() { return evaluator.getCounters(); }
+
+	@Override
+	public boolean isSymmetric() { return symmetric; }
+
+	/**
+	 * Returns the evaluator whose evaluations are cached
+	 * @return The evaluator
+	 */
+	public Evaluator getEvaluator() { return evaluator; }
+
+	/**
+	 * Returns the cache, which has the hit and miss counters
+	 * @return The cache
+	 */
+	public EvaluationCache getCache() { return cache; }
+}
@@ -0,0 +1,35 @@
+package com.ahfriedman.othelloai.evaluation;
+
+/**
+ * Keeps the feature counters for an evaluator. Subclasses read counters once per evaluation, and only record
+ * features if it is not null, so an evaluator that is not counting never calls System.nanoTime.
+ */
+public abstract class CountingEvaluator implements Evaluator {
+
+	/**
+	 * The name of each feature, in the order subclasses number them
+	 */
+	private final String[] features;
+
+	/**
+	 * The counters, or null if we are not counting
+	 */
+	protected FeatureCounters counters = null;
+
+	/**
+	 * @param features The name of each feature
+	 */
+	protected CountingEvaluator(String... features)
+	{
+		this.features = features;
+	}
+
+	@Override
+	public void setCounting(boolean counting)
+	{
+		counters = counting ? new FeatureCounters(features) : null;
+	}
+
+	@Override
+	public FeatureCounters getCounters() { return counters; }
+}
@@ -0,0 +1,140 @@
+package com.ahfriedman.othelloai.evaluation;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size, direct-mapped cache of evaluations, keyed by the hash of a position.
+ * <br />
+ * Each entry is a pair of longs next to each other in one array: the key XORed with the data, then the data (the
+ * evaluation's float bits, with a bit set so that a stored entry is never 0). As in TranspositionTable, a reader only
+ * accepts an entry if the two halves XOR back to the key it is looking for, so an entry another thread was part way
+ * through writing is just a miss. This lets every search thread share the cache without locks, and nothing is
+ * allocated after the cache is created. A new entry always replaces the one in its slot.
+ */
+public class EvaluationCache {
+
+	/**
+	 * Number of bytes used by each entry (the key and the data)
+	 */
+	private static final int ENTRY_BYTES = 16;
+
+	/**
+	 * Set in the data of every stored entry, so that a packed entry of 0 can be used as a miss
+	 */
+	private static final long STORED = 1L << 32;
+
+	/**
+	 * The entries, as (key ^ data, data) pairs
+	 */
+	private final long[] entries;
+
+	/**
+	 * Mask used to turn a key into an entry index
+	 */
+	private final int mask;
+
+	/**
+	 * How many probes found an entry, and how many did not
+	 */
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Constructs a new cache that uses (at most) the given amount of memory.
+	 * @param megabytes The memory budget of the cache in megabytes
+	 */
+	public EvaluationCache(int megabytes)
+	{
+		final long budget = Math.max(1, megabytes) * 1024L * 1024L;
+
+		//Use the largest power of two number of entries that fits in the budget so that indexing is just a mask
+		final int size = Integer.highestOneBit((int) Math.min(budget / ENTRY_BYTES, 1 << 29));
+
+		this.mask = size - 1;
+		this.entries = new long[2 * size];
+	}
+
+	/**
+	 * Looks up the entry for a key.
+	 * @param key The hash of the position
+	 * @return The packed entry, or 0 if there is no entry for the key. Use score to read it.
+	 */
+	public long probe(long key)
+	{
+		final int i = index(key);
+
+		//Read the data first, and only trust it if it matches up with the key
+		final long d = entries[i + 1];
+		if((entries[i] ^ d) == key && d != 0)
+		{
+			hits.increment();
+			return d;
+		}
+
+		misses.increment();
+		return 0;
+	}
+
+	/**
+	 * Stores an evaluation, replacing whatever was in its slot.
+	 * @param key The hash of the position
+	 * @param score The evaluation
+	 */
+	public void store(long key, float score)
+	{
+		final int i = index(key);
+		final long d = (Float.floatToRawIntBits(score) & 0xFFFFFFFFL) | STORED;
+		entries[i + 1] = d;
+		entries[i] = key ^ d;
+	}
+
+	/**
+	 * Reads the evaluation from a packed entry
+	 */
+	public static float score(long entry) { return Float.intBitsToFloat((int) entry); }
+
+	/**
+	 * Removes every entry from the cache, and sets the counters back to 0.
+	 */
+	public void clear()
+	{
+		Arrays.fill(entries, 0);
+		hits.reset();
+		misses.reset();
+	}
+
+	/**
+	 * Returns the number of entries the cache can store
+	 * @return The number of entries the cache can store
+	 */
+	public int capacity() { return mask + 1; }
+
+	/**
+	 * Returns the number of probes that found an entry
+	 * @return The number of hits
+	 */
+	public long getHits() { return hits.sum(); }
+
+	/**
+	 * Returns the number of probes that did not find an entry
+	 * @return The number of misses
+	 */
+	public long getMisses() { return misses.sum(); }
+
+	/**
+	 * Returns the share of probes that found an entry
+	 * @return The hit rate, from 0 to 1
+	 */
+	public double hitRate()
+	{
+		final long h = getHits();
+		final long total = h + getMisses();
+		return (total == 0) ? 0 : (double) h / total;
+	}
+
+	/**
+	 * Converts a key into the index of its entry
+	 */
+	private int index(long key) { return ((int) (key ^ (key >>> 32)) & mask) << 1; }
+}
@@ -0,0 +1,53 @@
+package com.ahfriedman.othelloai.evaluation;
+
+import com.ahfriedman.othelloai.models.State;
+
+/**
+ * An evaluation function for the search. The search only ever evaluates states through an Evaluator, so evaluators
+ * can be swapped (and compared on speed and strength) without changing the search.
+ * <br />
+ * Evaluators are called by every search thread at once, so they must be safe to use from many threads.
+ * Each one can also count how often each of its features is calculated and how long that takes (see setCounting).
+ */
+public interface Evaluator {
+
+	/**
+	 * Evaluates a state for a player. Higher is better for the player, whoever is to move.
+	 * @param s The state
+	 * @param player The player to evaluate the state for
+	 * @return The evaluation of the state
+	 */
+	public float evaluate(State s, byte player);
+
+	/**
+	 * Turns counting calls and time per feature on or off. Turning it on starts new counters.
+	 * Counting calls System.nanoTime for every feature, so it slows evaluation down, and should only be used to measure.
+	 * @param counting true to count; false otherwise
+	 */
+	public void setCounting(boolean counting);
+
+	/**
+	 * Returns the counters for each feature
+	 * @return The counters, or null if this evaluator is not counting
+	 */
+	public FeatureCounters getCounters();
+
+	/**
+	 * Returns whether the evaluator gives every symmetric copy of a state the same score, so that evaluations can be 
+	 * shared between them (see CachedEvaluator)
+	 * @return true if the evaluation is the same under every symmetry of the board; false otherwise
+	 */
+	public default boolean isSymmetric() { return false; }
+
+	/**
+	 * Returns the evaluator used when none is given: the pattern evaluator if there is a weights file, and the
+	 * heuristic otherwise, behind a cache unless Consts.EVAL_CACHE_MEGABYTES is 0.
+	 * @return The default evaluator
+	 */
+	public static Evaluator getDefault()
+	{
+		if(CachedEvaluator.DEFAULT != null)
+			return CachedEvaluator.DEFAULT;
+		return (PatternEvaluator.DEFAULT != null) ? PatternEvaluator.DEFAULT : HeuristicEvaluator.DEFAULT;
+	}
+}
@@ -0,0 +1,97 @@
+package com.ahfriedman.othelloai.evaluation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how many times each feature of an evaluator is calculated, and how many nanoseconds it takes in total.
+ * Counters can be added to by every search thread at once.
+ */
+public class FeatureCounters {
+
+	private final String[] names;
+	private final LongAdder[] calls;
+	private final LongAdder[] nanos;
+
+	/**
+	 * Creates counters, all starting at 0
+	 * @param names The name of each feature
+	 */
+	public FeatureCounters(String... names)
+	{
+		this.names = names.clone();
+		this.calls = new LongAdder[names.length];
+		this.nanos = new LongAdder[names.length];
+
+		for(int i = 0; i < names.length; i++)
+		{
+			calls[i] = new LongAdder();
+			nanos[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Counts one calculation of a feature. Features are usually calculated one after another, so this returns the
+	 * time it was called at, to be used as the start of the next feature.
+	 * @param feature The feature
+	 * @param start The System.nanoTime() the feature was started at
+	 * @return The current System.nanoTime()
+	 */
+	public long record(int feature, long start)
+	{
+		final long now = System.nanoTime();
+		calls[feature].increment();
+		nanos[feature].add(now - start);
+		return now;
+	}
+
+	/**
+	 * Sets every counter back to 0
+	 */
+	public void reset()
+	{
+		for(int i = 0; i < names.length; i++)
+		{
+			calls[i].reset();
+			nanos[i].reset();
+		}
+	}
+
+	/**
+	 * Returns the number of features
+	 * @return The number of features
+	 */
+	public int getFeatures() { return names.length; }
+
+	/**
+	 * Returns the name of a feature
+	 * @param feature The feature
+	 * @return The name of the feature
+	 */
+	public String getName(int feature) { return names[feature]; }
+
+	/**
+	 * Returns how many times a feature has been calculated
+	 * @param feature The feature
+	 * @return The number of calls
+	 */
+	public long getCalls(int feature) { return calls[feature].sum(); }
+
+	/**
+	 * Returns how long calculating a feature has taken in total
+	 * @param feature The feature
+	 * @return The total time in nanoseconds
+	 */
+	public long getNanos(int feature) { return nanos[feature].sum(); }
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder ans = new StringBuilder();
+		for(int i = 0; i < names.length; i++)
+		{
+			final long n = getCalls(i);
+			ans.append(String.format("%-12s %12d calls %8.1f ns/call%n", names[i], n, (n == 0) ? 0.0 : (double) getNanos(i) / n));
+		}
+		return ans.toString();
+	}
+}
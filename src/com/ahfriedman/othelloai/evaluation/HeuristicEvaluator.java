@@ -0,0 +1,64 @@
+package com.ahfriedman.othelloai.evaluation;
+
+import com.ahfriedman.othelloai.models.State;
+
+/**
+ * Our original evaluation function. It takes the better of two estimates: one from stable discs, the worth of each
+ * player's tiles (see State.SQUARE_WEIGHTS) and mobility, and one from mobility or tile count alone.
+ */
+public class HeuristicEvaluator extends CountingEvaluator {
+
+	/**
+	 * The evaluator used by State.getEvaluation, and by the search when there are no pattern weights
+	 */
+	public static final HeuristicEvaluator DEFAULT = new HeuristicEvaluator();
+
+	/**
+	 * The features
+	 */
+	public static final int MOBILITY = 0;
+	public static final int STABILITY = 1;
+	public static final int TILES = 2;
+
+	public HeuristicEvaluator()
+	{
+		super("mobility", "stability", "tiles");
+	}
+
+	//TODO: DO BETTER!, STORE THIS AND UTILITY SOMEHWERE?; Try using byte to conserve memory
+	@Override
+	public float evaluate(State s, byte player)
+	{
+		final FeatureCounters counters = this.counters;
+		long t = (counters != null) ? System.nanoTime() : 0;
+
+		final byte opponent = State.other(player);
+
+		final int PlayerMoves = s.getMoveCount(player);
+		final int OpponentMoves = s.getMoveCount(opponent);
+		if(counters != null) t = counters.record(MOBILITY, t);
+
+		final long stable = State.getStableMask(s.getDiscs(State.AG1), s.getDiscs(State.AG2));
+		final int PlayerStable = Long.bitCount(stable & s.getDiscs(player));
+		final int OpponentStable = Long.bitCount(stable & s.getDiscs(opponent));
+		if(counters != null) t = counters.record(STABILITY, t);
+
+//		final float progress = (PlayerTiles + OpponentTiles) / 64.0f;
+
+		//Number of pieces involved in move
+		//Keep list of open spaces to not brute force moves
+		//TODO: Try to consider Semistable discs?
+
+		final float h1 = 2.0f * (PlayerStable + (56 - OpponentStable)) + (s.getTileWorth(player) - s.getTileWorth(opponent)) + (PlayerMoves - OpponentMoves);
+		final float h2 = Math.max(2.5f*(PlayerMoves - OpponentMoves), 2.5f*(s.getTiles(player) - s.getTiles(opponent)));
+		if(counters != null) counters.record(TILES, t);
+
+		return Math.max(h1,  h2);
+	}
+
+	/**
+	 * The tile weights and stability are the same in every corner, so this is symmetric
+	 */
+	@Override
+	public boolean isSymmetric() { return true; }
+}
@@ -0,0 +1,75 @@
+package com.ahfriedman.othelloai.evaluation;
+
+import com.ahfriedman.othelloai.models.State;
+
+/**
+ * A cheap evaluation made only of bitboard operations. It rewards having more moves than the opponent now (mobility)
+ * and later (potential mobility: empty squares next to the opponent's discs), having fewer discs next to empty squares
+ * (frontier discs, which give the opponent moves), and holding corners.
+ * Once neither player can move, the game is over and the score is the disc differential.
+ */
+public class MobilityEvaluator extends CountingEvaluator {
+
+	/**
+	 * The features
+	 */
+	public static final int MOBILITY = 0;
+	public static final int POTENTIAL_MOBILITY = 1;
+	public static final int FRONTIER = 2;
+	public static final int CORNERS = 3;
+
+	/**
+	 * The weight of each feature, and of each disc once the game is over
+	 */
+	private static final float MOBILITY_WEIGHT = 3.0f;
+	private static final float POTENTIAL_MOBILITY_WEIGHT = 1.0f;
+	private static final float FRONTIER_WEIGHT = 1.0f;
+	private static final float CORNER_WEIGHT = 10.0f;
+	private static final float DISC_WEIGHT = 4.0f;
+
+	private static final long CORNERS_MASK = 0x8100000000000081L;
+
+	public MobilityEvaluator()
+	{
+		super("mobility", "potential", "frontier", "corners");
+	}
+
+	@Override
+	public float evaluate(State s, byte player)
+	{
+		final FeatureCounters counters = this.counters;
+		long t = (counters != null) ? System.nanoTime() : 0;
+
+		final long own = s.getDiscs(player);
+		final long opp = s.getDiscs(State.other(player));
+		final long empty = ~(own | opp);
+
+		final int ownMoves = Long.bitCount(State.getMoveMask(own, opp));
+		final int oppMoves = Long.bitCount(State.getMoveMask(opp, own));
+		if(counters != null) t = counters.record(MOBILITY, t);
+
+		if(ownMoves == 0 && oppMoves == 0)
+			return DISC_WEIGHT * (Long.bitCount(own) - Long.bitCount(opp));
+
+		final int ownPotential = Long.bitCount(State.getNeighbours(opp) & empty);
+		final int oppPotential = Long.bitCount(State.getNeighbours(own) & empty);
+		if(counters != null) t = counters.record(POTENTIAL_MOBILITY, t);
+
+		final long nextToEmpty = State.getNeighbours(empty);
+		final int ownFrontier = Long.bitCount(nextToEmpty & own);
+		final int oppFrontier = Long.bitCount(nextToEmpty & opp);
+		if(counters != null) t = counters.record(FRONTIER, t);
+
+		final int corners = Long.bitCount(own & CORNERS_MASK) - Long.bitCount(opp & CORNERS_MASK);
+		if(counters != null) counters.record(CORNERS, t);
+
+		return MOBILITY_WEIGHT * (ownMoves - oppMoves) + POTENTIAL_MOBILITY_WEIGHT * (ownPotential - oppPotential)
+				- FRONTIER_WEIGHT * (ownFrontier - oppFrontier) + CORNER_WEIGHT * corners;
+	}
+
+	/**
+	 * Mobility, frontiers and corners are the same under every symmetry
+	 */
+	@Override
+	public boolean isSymmetric() { return true; }
+}
@@ -0,0 +1,78 @@
+package com.ahfriedman.othelloai.evaluation;
+
+import com.ahfriedman.othelloai.NN.Accumulator;
+import com.ahfriedman.othelloai.NN.CompiledNetwork;
+import com.ahfriedman.othelloai.agents.GeneticNNAgent;
+import com.ahfriedman.othelloai.models.State;
+
+/**
+ * Evaluates states with the network of a GeneticNNAgent, so that a trained network can be searched with instead of
+ * only looking one move ahead. The network's output is scaled up to roughly the range of a disc differential.
+ * <br />
+ * Each thread keeps an Accumulator for the network. The search evaluates positions one after another that are only 
+ * a few moves apart, so only the squares that changed since the last evaluation have to be added in again. 
+ */
+public class NeuralNetworkEvaluator extends CountingEvaluator {
+
+	/**
+	 * The features
+	 */
+	public static final int NETWORK = 0;
+
+	/**
+	 * What the network's output (from -1 to 1) is multiplied by
+	 */
+	private static final float SCALE = 64.0f;
+
+	private final GeneticNNAgent network;
+
+	/**
+	 * The accumulator for each thread
+	 */
+	private final ThreadLocal<Accumulator> accumulators = new ThreadLocal<Accumulator>();
+
+	/**
+	 * @param network The agent whose network to evaluate with
+	 */
+	public NeuralNetworkEvaluator(GeneticNNAgent network)
+	{
+		super("network");
+		this.network = network;
+	}
+
+	@Override
+	public float evaluate(State s, byte player)
+	{
+		final FeatureCounters counters = this.counters;
+		final long t = (counters != null) ? System.nanoTime() : 0;
+
+		//The network scores a state for the player who just moved, which is the player not to move
+		final float value = SCALE * (float) accumulator().evaluate(s);
+		if(counters != null) counters.record(NETWORK, t);
+
+		return (s.getPlayer() == player) ? -value : value;
+	}
+
+	/**
+	 * Returns this thread's accumulator, starting a new one if the network has changed since it was made
+	 */
+	private Accumulator accumulator()
+	{
+		final CompiledNetwork compiled = network.compile();
+
+		Accumulator acc = accumulators.get();
+		if(acc == null || acc.getNetwork() != compiled)
+		{
+			acc = new Accumulator(compiled);
+			accumulators.set(acc);
+		}
+
+		return acc;
+	}
+
+	/**
+	 * Returns the agent whose network this evaluates with
+	 * @return The agent
+	 */
+	public GeneticNNAgent getNetwork() { return network; }
+}
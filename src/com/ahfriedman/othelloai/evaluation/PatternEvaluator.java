@@ -0,0 +1,200 @@
+package com.ahfriedman.othelloai.evaluation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.ahfriedman.othelloai.models.Patterns;
+import com.ahfriedman.othelloai.models.State;
+import com.ahfriedman.othelloai.utils.Consts;
+
+/**
+ * Evaluates states with tables of pattern weights (see Patterns). The score of a state is the sum of the weight of
+ * each pattern's index, which estimates the final disc differential for AG1. The weights depend on the phase of the
+ * game (how many discs are on the board), as the same shape can be good early on and bad late in the game.
+ * <br />
+ * State keeps the pattern indices up to date as moves are made (see Patterns.TRACKED), so an evaluation is one table
+ * lookup per pattern.
+ * Weights are fitted offline by PatternTrainer.
+ */
+public class PatternEvaluator extends CountingEvaluator {
+
+	/**
+	 * The first four bytes of every weights file ("PAT" and a 0 byte), and the version of the format
+	 */
+	public static final int MAGIC = 0x50415400;
+	public static final int VERSION = 1;
+
+	/**
+	 * The evaluator loaded from Consts.PATTERN_FILE, or null if there is no weights file
+	 */
+	public static final PatternEvaluator DEFAULT = loadIfExists(Consts.PATTERN_FILE);
+
+	/**
+	 * Space for each thread to calculate pattern indices in, when State is not keeping them up to date
+	 */
+	private static final ThreadLocal<int[]> INDICES = ThreadLocal.withInitial(() -> new int[Patterns.INSTANCES]);
+
+	/**
+	 * The weights of every pattern type, for each phase. Indexed by [phase][Patterns.TYPE_OFFSETS[type] + index].
+	 */
+	private final float[][] weights;
+
+	/**
+	 * The features
+	 */
+	public static final int PATTERNS = 0;
+
+	/**
+	 * Creates an evaluator with every weight set to 0
+	 * @param phases The number of phases the game is split into
+	 */
+	public PatternEvaluator(int phases)
+	{
+		super("patterns");
+		this.weights = new float[phases][Patterns.WEIGHTS];
+	}
+
+	/**
+	 * Reads an evaluator from a weights file
+	 * @param file The weights file
+	 * @return The evaluator
+	 * @throws IOException If the file cannot be read, or is not a weights file
+	 */
+	public static PatternEvaluator load(File file) throws IOException
+	{
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if(in.readInt() != MAGIC)
+				throw new IOException("Not a pattern weights file: " + file);
+
+			final int version = in.readInt();
+			if(version != VERSION)
+				throw new IOException("Unsupported pattern weights version " + version + ": " + file);
+
+			final int phases = in.readInt();
+			if(in.readInt() != Patterns.WEIGHTS)
+				throw new IOException("Pattern weights do not match the patterns: " + file);
+
+			final PatternEvaluator ans = new PatternEvaluator(phases);
+			for(float[] w : ans.weights)
+				for(int i = 0; i < w.length; i++)
+					w[i] = in.readFloat();
+			return ans;
+		}
+	}
+
+	/**
+	 * Reads an evaluator from a weights file if it exists
+	 * @param path The path of the weights file
+	 * @return The evaluator, or null if there is no file at the path or it could not be read
+	 */
+	public static PatternEvaluator loadIfExists(String path)
+	{
+		final File file = new File(path);
+		if(!file.exists())
+			return null;
+
+		try
+		{
+			return load(file);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Warning: could not load the pattern weights: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the weights to a file
+	 * @param file The file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public void save(File file) throws IOException
+	{
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(weights.length);
+			out.writeInt(Patterns.WEIGHTS);
+
+			for(float[] w : weights)
+				for(float x : w)
+					out.writeFloat(x);
+		}
+	}
+
+	/**
+	 * Evaluates a state for a player
+	 * @param s The state
+	 * @param player The player to evaluate the state for
+	 * @return The estimated final disc differential for the player
+	 */
+	@Override
+	public float evaluate(State s, byte player)
+	{
+		final FeatureCounters counters = this.counters;
+		final long t = (counters != null) ? System.nanoTime() : 0;
+
+		final float score = score(s);
+		if(counters != null) counters.record(PATTERNS, t);
+
+		return (player == State.AG1) ? score : -score;
+	}
+
+	/**
+	 * Evaluates a state for AG1
+	 * @param s The state
+	 * @return The estimated final disc differential for AG1
+	 */
+	public float score(State s)
+	{
+		final float[] w = weights[phase(s.getPlayerTiles() + s.getOpponentTiles(), weights.length)];
+
+		float score = 0;
+		if(Patterns.TRACKED)
+		{
+			for(int p = 0; p < Patterns.INSTANCES; p++)
+				score += w[Patterns.INSTANCE_OFFSETS[p] + s.getPattern(p)];
+		}
+		else
+		{
+			final int[] indices = INDICES.get();
+			Patterns.compute(s.getDiscs(State.AG1), s.getDiscs(State.AG2), indices);
+			for(int p = 0; p < Patterns.INSTANCES; p++)
+				score += w[Patterns.INSTANCE_OFFSETS[p] + indices[p]];
+		}
+		return score;
+	}
+
+	/**
+	 * Works out the phase of the game from the number of discs on the board
+	 * @param discs The number of discs on the board, from 4 to 64
+	 * @param phases The number of phases
+	 * @return The phase, from 0 to phases - 1
+	 */
+	public static int phase(int discs, int phases)
+	{
+		return Math.min(phases - 1, Math.max(0, (discs - 4) * phases / 61));
+	}
+
+	/**
+	 * Returns the number of phases the game is split into
+	 * @return The number of phases
+	 */
+	public int getPhases() { return weights.length; }
+
+	/**
+	 * Returns the weights for a phase. The array is not a copy, so changing it changes the evaluator.
+	 * @param phase The phase
+	 * @return The weights, indexed by Patterns.TYPE_OFFSETS[type] + index
+	 */
+	public float[] getWeights(int phase) { return weights[phase]; }
+}
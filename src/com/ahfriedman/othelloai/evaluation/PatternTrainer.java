@@ -0,0 +1,283 @@
+package com.ahfriedman.othelloai.evaluation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Random;
+
+import com.ahfriedman.othelloai.models.Game;
+import com.ahfriedman.othelloai.models.Patterns;
+import com.ahfriedman.othelloai.models.State;
+import com.ahfriedman.othelloai.searching.EndgameSolver;
+import com.ahfriedman.othelloai.utils.Consts;
+
+/**
+ * Fits the weights of a PatternEvaluator offline.
+ * <br />
+ * Training data is a text file with one position per line: the bitboards of AG1 and AG2 in hex, the player to move,
+ * and the score of the position as a final disc differential for AG1. The patterns do not depend on the player to move, 
+ * but it is part of the position, so it is used to tell positions apart when deduplicating them. Any source of labelled positions can be used
+ * (such as positions scored by deep searches). The generate command makes data by self-play: each game is played
+ * with random moves until it reaches Consts.TRAIN_SOLVE_EMPTIES empty squares, and is then solved and played out
+ * perfectly. Every position in the game is labelled with the solved score, which is exact from the solved position on.
+ * <br />
+ * A position and its symmetric copies have the same pattern indices, so they would only count the same sample more than 
+ * once. Positions are deduplicated by their canonical hash (with the player to move) when they are generated and when 
+ * they are read, keeping the first label seen. 
+ * <br />
+ * The fit command fits the weights of each phase to approximate a least squares fit: it reduces the squared difference 
+ * between the evaluation and the label over every position in the phase, without solving for the minimum exactly. 
+ * Each iteration moves every weight by a fixed fraction (STEP) of the average error of the positions that use it, 
+ * damped by REGULARIZATION so that rarely seen weights stay small. This is stopped once an iteration no longer 
+ * improves the mean squared error by at least TOLERANCE, or after the given number of iterations. If the last 
+ * iteration made the error worse, it is undone, so the weights left are the best ones seen.
+ * <br />
+ * Usage: PatternTrainer generate [data file] [games]
+ * <br />
+ * Usage: PatternTrainer fit [data file] [weights file] [iterations]
+ */
+public class PatternTrainer {
+
+	/**
+	 * How far each iteration moves a weight towards the value that would remove the average error of its positions.
+	 * Every position uses Patterns.INSTANCES weights, so moving each of them the whole way would overshoot.
+	 */
+	private static final float STEP = 2.0f / Patterns.INSTANCES;
+
+	/**
+	 * Added to the number of positions that use a weight, so that rarely seen weights stay close to 0
+	 */
+	private static final float REGULARIZATION = 2.0f;
+
+	/**
+	 * The smallest fraction an iteration has to lower the mean squared error by for fitting to keep going
+	 */
+	private static final double TOLERANCE = 1e-4;
+
+	public static void main(String... args) throws IOException
+	{
+		if(args.length > 0 && args[0].equals("generate"))
+		{
+			final String path = (args.length > 1) ? args[1] : "patterns.txt";
+			final int games = (args.length > 2) ? Integer.parseInt(args[2]) : 10_000;
+			generate(new File(path), games, new Random());
+		}
+		else if(args.length > 0 && args[0].equals("fit"))
+		{
+			final String data = (args.length > 1) ? args[1] : "patterns.txt";
+			final String path = (args.length > 2) ? args[2] : Consts.PATTERN_FILE;
+			final int iterations = (args.length > 3) ? Integer.parseInt(args[3]) : 50;
+
+			final PatternEvaluator evaluator = fit(read(new File(data)), Consts.PATTERN_PHASES, iterations);
+			evaluator.save(new File(path));
+			System.out.println("Wrote " + path);
+		}
+		else
+		{
+			System.out.println("Usage: PatternTrainer generate [data file] [games]");
+			System.out.println("       PatternTrainer fit [data file] [weights file] [iterations]");
+		}
+	}
+
+	/**
+	 * Labelled positions, stored as the pattern indices they would have in a State
+	 */
+	public static class Sample
+	{
+		public final int discs;
+		public final int[] indices = new int[Patterns.INSTANCES];
+		public final float score;
+
+		/**
+		 * @param ag1Discs The discs of AG1
+		 * @param ag2Discs The discs of AG2
+		 * @param score The score of the position for AG1
+		 */
+		public Sample(long ag1Discs, long ag2Discs, float score)
+		{
+			this.discs = Long.bitCount(ag1Discs | ag2Discs);
+			this.score = score;
+			Patterns.compute(ag1Discs, ag2Discs, indices);
+		}
+	}
+
+	/**
+	 * Makes training data by self-play, and writes it to a file
+	 * @param file The file to write
+	 * @param games The number of games to play
+	 * @param random The source of the random moves
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void generate(File file, int games, Random random) throws IOException
+	{
+		try(PrintWriter out = new PrintWriter(new FileWriter(file)))
+		{
+			final List<State> positions = new ArrayList<State>();
+			final Set<Long> seen = new HashSet<Long>();
+			int skipped = 0;
+
+			for(int g = 0; g < games; g++)
+			{
+				positions.clear();
+
+				State s = new State();
+				while(!Game.isTerminal(s) && 64 - s.getPlayerTiles() - s.getOpponentTiles() > Consts.TRAIN_SOLVE_EMPTIES)
+				{
+					positions.add(s);
+					final List<byte[]> moves = Game.actions(s);
+					s = moves.isEmpty() ? Game.pass(s) : Game.result(s, moves.get(random.nextInt(moves.size())));
+				}
+
+				//Solve the rest of the game, and turn the score around to be for AG1
+				final EndgameSolver solver = new EndgameSolver(System.nanoTime() + Long.MAX_VALUE / 2);
+				solver.solve(s, true);
+				final int score = (s.getPlayer() == State.AG1) ? solver.getScore() : -solver.getScore();
+
+				//Play the rest of the game perfectly, so that the last phases have positions too. The score stays the same. 
+				while(!Game.isTerminal(s))
+				{
+					positions.add(s);
+					solver.solve(s, true);
+					s = (solver.getBestMove() == EndgameSolver.NO_MOVE) ? Game.pass(s) : Game.result(s, State.squareToAction(solver.getBestMove()));
+				}
+
+				for(State p : positions)
+				{
+					if(seen.add(p.getCanonicalHash()))
+						out.printf("%016x %016x %d %d%n", p.getDiscs(State.AG1), p.getDiscs(State.AG2), p.getPlayer(), score);
+					else
+						skipped++;
+				}
+
+				if((g + 1) % 1000 == 0)
+					System.out.println((g + 1) + " games");
+			}
+
+			System.out.println("Wrote " + seen.size() + " positions, skipping " + skipped + " repeated or symmetric ones");
+		}
+	}
+
+	/**
+	 * Reads training data from a file, skipping positions that repeat an earlier one or a symmetric copy of it
+	 * @param file The file to read
+	 * @return The labelled positions
+	 * @throws IOException If the file cannot be read
+	 */
+	public static List<Sample> read(File file) throws IOException
+	{
+		final List<Sample> samples = new ArrayList<Sample>();
+		final Set<Long> seen = new HashSet<Long>();
+
+		try(BufferedReader in = new BufferedReader(new FileReader(file)))
+		{
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				final String[] data = line.trim().split("\\s+");
+				if(data.length != 4)
+					continue;
+
+				final long ag1 = Long.parseUnsignedLong(data[0], 16);
+				final long ag2 = Long.parseUnsignedLong(data[1], 16);
+				if(seen.add(State.canonicalHash(ag1, ag2, Byte.parseByte(data[2]))))
+					samples.add(new Sample(ag1, ag2, Float.parseFloat(data[3])));
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Fits the weights of a new evaluator to labelled positions, approximating a least squares fit (see the class comment)
+	 * @param samples The labelled positions
+	 * @param phases The number of phases to split the game into
+	 * @param iterations The most iterations to run for each phase
+	 * @return The fitted evaluator
+	 */
+	public static PatternEvaluator fit(List<Sample> samples, int phases, int iterations)
+	{
+		final PatternEvaluator evaluator = new PatternEvaluator(phases);
+
+		//Split the samples up by phase, as each phase is fitted on its own
+		final List<List<Sample>> byPhase = new ArrayList<List<Sample>>();
+		for(int p = 0; p < phases; p++)
+			byPhase.add(new ArrayList<Sample>());
+		for(Sample s : samples)
+			byPhase.get(PatternEvaluator.phase(s.discs, phases)).add(s);
+
+		final float[] errors = new float[Patterns.WEIGHTS];
+		final int[] counts = new int[Patterns.WEIGHTS];
+
+		for(int p = 0; p < phases; p++)
+		{
+			final List<Sample> phase = byPhase.get(p);
+			final float[] w = evaluator.getWeights(p);
+			if(phase.isEmpty())
+				continue;
+
+			//How many positions use each weight does not change between iterations
+			Arrays.fill(counts, 0);
+			for(Sample s : phase)
+				for(int i = 0; i < Patterns.INSTANCES; i++)
+					counts[Patterns.INSTANCE_OFFSETS[i] + s.indices[i]]++;
+
+			//The weights before the last step, to go back to if that step made the error worse
+			final float[] previous = new float[w.length];
+			double mse = 0;
+			double last = Double.POSITIVE_INFINITY;
+			int it = 0;
+			for(;; it++)
+			{
+				Arrays.fill(errors, 0);
+				mse = 0;
+
+				for(Sample s : phase)
+				{
+					final float error = s.score - score(w, s);
+					mse += error * error;
+					for(int i = 0; i < Patterns.INSTANCES; i++)
+						errors[Patterns.INSTANCE_OFFSETS[i] + s.indices[i]] += error;
+				}
+
+				//The error is for the weights after the last step, so undo that step if it made the error worse
+				if(mse > last)
+				{
+					System.arraycopy(previous, 0, w, 0, w.length);
+					mse = last;
+					it--;
+					break;
+				}
+				if(mse > last * (1 - TOLERANCE) || it == iterations)
+					break;
+				last = mse;
+
+				System.arraycopy(w, 0, previous, 0, w.length);
+				for(int i = 0; i < w.length; i++)
+					if(counts[i] != 0)
+						w[i] += STEP * errors[i] / (counts[i] + REGULARIZATION);
+			}
+
+			System.out.printf("phase %d: %d positions, %d iterations, mean squared error %.2f%n", p, phase.size(), it, mse / phase.size());
+		}
+
+		return evaluator;
+	}
+
+	/**
+	 * Evaluates a sample with one phase's weights
+	 */
+	private static float score(float[] w, Sample s)
+	{
+		float score = 0;
+		for(int i = 0; i < Patterns.INSTANCES; i++)
+			score += w[Patterns.INSTANCE_OFFSETS[i] + s.indices[i]];
+		return score;
+	}
+}
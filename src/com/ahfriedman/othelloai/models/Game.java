@@ -2,6 +2,9 @@ package com.ahfriedman.othelloai.models;
 
 import java.util.List;
 
+import com.ahfriedman.othelloai.OthelloAI;
+import com.ahfriedman.othelloai.evaluation.Evaluator;
+
 /**
  * This class represents the Game class from the book. 
  */
@@ -82,11 +85,12 @@ public class Game {
 		return (s.getPlayerTiles() + s.getOpponentTiles() == 64) ||
 				(s.getPlayerTiles() == 0) ||
 				(s.getOpponentTiles() == 0) ||
-				s.getMoves(State.AG1).isEmpty() && s.getMoves(State.AG2).isEmpty(); //TODO: Try to find a more efficient terminal check
+				!s.hasMoves(State.AG1) && !s.hasMoves(State.AG2);
 	}
 	
 	/**
-	 * Given a state, this function will return the utility of the state for our player. 
+	 * Given a state, this function will return the utility of the state for our player, using the default 
+	 * evaluator (see Evaluator.getDefault). The search uses the evaluator it is given instead. 
 	 * <br />
 	 * This function is equivalent to the
 	 * <code>
@@ -106,6 +110,7 @@ public class Game {
 		 */
 		//	if(isTerminal(s))
 		//		return s.getUtility();
-		return s.getEvaluation();
+		
+		return Evaluator.getDefault().evaluate(s, OthelloAI.AGENT_PLAYER);
 	}
 }
@@ -0,0 +1,210 @@
+package com.ahfriedman.othelloai.models;
+
+import java.io.File;
+
+import com.ahfriedman.othelloai.utils.Consts;
+
+/**
+ * The patterns used by the pattern-table evaluation (see PatternEvaluator). A pattern is a fixed list of squares, and
+ * its index is the base 3 number made from what is on each of them (0 for empty, 1 for AG1, 2 for AG2), so that every
+ * way the squares can be filled has its own weight.
+ * <br />
+ * Each pattern type is given once, anchored at the A1 corner, and copied onto the board with the eight symmetries.
+ * All copies of a type share the same weights, so that a shape is worth the same in every corner.
+ * The indices of every pattern are kept up to date by State as moves are made and taken back (see TRACKED), so
+ * evaluating a state only has to add up one weight per pattern.
+ */
+public class Patterns {
+
+	/**
+	 * Whether State keeps the pattern indices up to date. This costs time on every move, so it is only done when
+	 * there are pattern weights to evaluate with (a file at Consts.PATTERN_FILE). Otherwise, PatternEvaluator
+	 * calculates the indices when it needs them.
+	 */
+	public static final boolean TRACKED = new File(Consts.PATTERN_FILE).exists();
+
+	/**
+	 * The pattern types
+	 */
+	public static final int EDGE_2X = 0;
+	public static final int CORNER_3X3 = 1;
+	public static final int CORNER_2X5 = 2;
+	public static final int DIAG_8 = 3;
+	public static final int DIAG_7 = 4;
+	public static final int DIAG_6 = 5;
+	public static final int DIAG_5 = 6;
+	public static final int DIAG_4 = 7;
+	public static final int LINE_2 = 8;
+	public static final int LINE_3 = 9;
+	public static final int LINE_4 = 10;
+
+	/**
+	 * The squares (r * 8 + c) of each pattern type. The first square is the lowest digit of the index.
+	 */
+	private static final int[][] TYPE_SQUARES = new int[][] {
+		{ 0, 1, 2, 3, 4, 5, 6, 7, 9, 14 },   //An edge, along with the two X-squares next to it
+		{ 0, 1, 2, 8, 9, 10, 16, 17, 18 },   //The 3x3 square in a corner
+		{ 0, 1, 2, 3, 4, 8, 9, 10, 11, 12 }, //The 2x5 rectangle in a corner
+		{ 0, 9, 18, 27, 36, 45, 54, 63 },    //The diagonals
+		{ 1, 10, 19, 28, 37, 46, 55 },
+		{ 2, 11, 20, 29, 38, 47 },
+		{ 3, 12, 21, 30, 39 },
+		{ 4, 13, 22, 31 },
+		{ 8, 9, 10, 11, 12, 13, 14, 15 },    //The second, third and fourth lines from an edge
+		{ 16, 17, 18, 19, 20, 21, 22, 23 },
+		{ 24, 25, 26, 27, 28, 29, 30, 31 },
+	};
+
+	/**
+	 * The number of pattern types
+	 */
+	public static final int TYPES = TYPE_SQUARES.length;
+
+	/**
+	 * The number of indices of each type (3 to the number of squares), and where each type's weights start
+	 * in a table of weights for every type
+	 */
+	public static final int[] TYPE_SIZES = new int[TYPES];
+	public static final int[] TYPE_OFFSETS = new int[TYPES];
+
+	/**
+	 * The number of weights needed for every type
+	 */
+	public static final int WEIGHTS;
+
+	/**
+	 * The number of patterns on the board (every symmetric copy of every type), the type of each, where the weights 
+	 * of its type start, and its squares
+	 */
+	public static final int INSTANCES;
+	public static final int[] INSTANCE_TYPES;
+	public static final int[] INSTANCE_OFFSETS;
+	private static final int[][] INSTANCE_SQUARES;
+
+	/**
+	 * For each square, the patterns it is in, along with the power of 3 of its digit in each of them, packed into
+	 * one int as (power << 6) | pattern. Moving on a square changes these patterns by a multiple of these powers.
+	 */
+	private static final int[][] SQUARE_UPDATES = new int[64][];
+
+	static {
+		int total = 0;
+		for(int t = 0; t < TYPES; t++)
+		{
+			int size = 1;
+			for(int i = 0; i < TYPE_SQUARES[t].length; i++)
+				size *= 3;
+
+			TYPE_SIZES[t] = size;
+			TYPE_OFFSETS[t] = total;
+			total += size;
+		}
+		WEIGHTS = total;
+
+		//Copy every type onto the board with the symmetries, skipping copies that cover the same squares as one we already have
+		final int[] types = new int[TYPES * State.SYMMETRIES];
+		final int[][] squares = new int[TYPES * State.SYMMETRIES][];
+		int count = 0;
+		for(int t = 0; t < TYPES; t++)
+		{
+			final long[] seen = new long[State.SYMMETRIES];
+			int copies = 0;
+
+			for(int sym = 0; sym < State.SYMMETRIES; sym++)
+			{
+				final int[] copy = new int[TYPE_SQUARES[t].length];
+				long mask = 0;
+				for(int i = 0; i < copy.length; i++)
+				{
+					copy[i] = State.transformSquare(TYPE_SQUARES[t][i], sym);
+					mask |= 1L << copy[i];
+				}
+
+				boolean duplicate = false;
+				for(int i = 0; i < copies; i++)
+					duplicate |= seen[i] == mask;
+				if(duplicate)
+					continue;
+
+				seen[copies++] = mask;
+				types[count] = t;
+				squares[count] = copy;
+				count++;
+			}
+		}
+
+		INSTANCES = count;
+		INSTANCE_TYPES = new int[count];
+		INSTANCE_OFFSETS = new int[count];
+		INSTANCE_SQUARES = new int[count][];
+		System.arraycopy(types, 0, INSTANCE_TYPES, 0, count);
+		System.arraycopy(squares, 0, INSTANCE_SQUARES, 0, count);
+		for(int p = 0; p < count; p++)
+			INSTANCE_OFFSETS[p] = TYPE_OFFSETS[INSTANCE_TYPES[p]];
+
+		for(int sq = 0; sq < 64; sq++)
+		{
+			int n = 0;
+			for(int p = 0; p < INSTANCES; p++)
+				for(int s : INSTANCE_SQUARES[p])
+					if(s == sq)
+						n++;
+
+			SQUARE_UPDATES[sq] = new int[n];
+
+			n = 0;
+			for(int p = 0; p < INSTANCES; p++)
+			{
+				int power = 1;
+				for(int s : INSTANCE_SQUARES[p])
+				{
+					if(s == sq)
+						SQUARE_UPDATES[sq][n++] = (power << 6) | p;
+					power *= 3;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculates the index of every pattern from scratch
+	 * @param ag1Discs The discs of AG1
+	 * @param ag2Discs The discs of AG2
+	 * @param indices The array to fill in, with one entry per pattern
+	 */
+	public static void compute(long ag1Discs, long ag2Discs, int[] indices)
+	{
+		for(int p = 0; p < INSTANCES; p++)
+		{
+			final int[] squares = INSTANCE_SQUARES[p];
+
+			int index = 0;
+			for(int i = squares.length - 1; i >= 0; i--)
+			{
+				final long bit = 1L << squares[i];
+				index = index * 3 + (((ag1Discs & bit) != 0) ? State.AG1 : ((ag2Discs & bit) != 0) ? State.AG2 : 0);
+			}
+			indices[p] = index;
+		}
+	}
+
+	/**
+	 * Updates the indices for a move. For a move by player on an empty square, the placed disc goes from 0 to 
+	 * player and each flipped disc goes from other(player) to player, so placed is player and flipped is 
+	 * player - other(player). Taking the move back negates both. 
+	 * @param indices The indices to update
+	 * @param sq The square moved to
+	 * @param placed How much the digit of sq changes by
+	 * @param flips The discs flipped
+	 * @param flipped How much the digit of each flipped disc changes by
+	 */
+	public static void update(int[] indices, int sq, int placed, long flips, int flipped)
+	{
+		for(int u : SQUARE_UPDATES[sq])
+			indices[u & 63] += placed * (u >>> 6);
+
+		for(long f = flips; f != 0; f &= f - 1)
+			for(int u : SQUARE_UPDATES[Long.numberOfTrailingZeros(f)])
+				indices[u & 63] += flipped * (u >>> 6);
+	}
+}
@@ -5,8 +5,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import com.ahfriedman.othelloai.OthelloAI;
-import com.ahfriedman.othelloai.searching.IterativeSearch.EvaluatedAction;
-import com.ahfriedman.othelloai.utils.APQ;
+import com.ahfriedman.othelloai.evaluation.HeuristicEvaluator;
 
 /**
  * Used to manage the state related processes
@@ -65,9 +64,143 @@ public class State {
 	};
 
 	/**
-	 * Stores the representation of the board
+	 * STATE_WEIGHTS flattened to square indices (r * 8 + c) so that they can be read while walking bitboards
 	 */
-	private byte[][] board;
+	private static final float[] SQUARE_WEIGHTS = new float[64];
+
+	static {
+		for(int sq = 0; sq < 64; sq++)
+			SQUARE_WEIGHTS[sq] = STATE_WEIGHTS[sq >> 3][sq & 7];
+	}
+
+	/**
+	 * The width and height of the board
+	 */
+	private static final byte SIZE = 8;
+
+	/**
+	 * Masks used to prevent shifts from wrapping around the edges of the board. 
+	 * A square's bit is (r * 8 + c), so the A file is the low bit of every byte. 
+	 */
+	private static final long NOT_A_FILE = 0xFEFEFEFEFEFEFEFEL;
+	private static final long NOT_H_FILE = 0x7F7F7F7F7F7F7F7FL;
+
+	/**
+	 * The eight directions, as the amount to shift a bitboard by (positive is a left shift), 
+	 * along with the squares that a shift in that direction is allowed to land on. 
+	 * The order is: E, W, S, N, SE, NW, SW, NE. 
+	 */
+	private static final int[] DIR_SHIFTS = new int[] { 1, -1, 8, -8, 9, -9, 7, -7 };
+	private static final long[] DIR_MASKS = new long[] {
+		NOT_A_FILE, NOT_H_FILE, -1L, -1L, NOT_A_FILE, NOT_H_FILE, NOT_H_FILE, NOT_A_FILE
+	};
+
+	/**
+	 * Used to look up a direction index from a (vr, vc) velocity. Indexed by (vr + 1) * 3 + (vc + 1). 
+	 */
+	private static final int[] VELOCITY_TO_DIR = new int[] { 5, 3, 7, 1, -1, 0, 6, 2, 4 };
+
+	/**
+	 * For each direction index, the squares that have no neighbour in that direction (the edge of the board). 
+	 * Direction d ^ 1 is always the opposite of direction d. 
+	 */
+	private static final long[] EDGES = new long[8];
+
+	static {
+		for(int d = 0; d < 8; d++)
+			EDGES[d] = ~shift(-1L, d ^ 1);
+	}
+
+	/**
+	 * The base 3 value of each 8-bit row, with a 1 for every set bit. A row of the board (with one player's discs 
+	 * as 1s and the other's as 2s) is then TO_BASE3[a] + 2 * TO_BASE3[b]. 
+	 */
+	private static final int[] TO_BASE3 = new int[256];
+
+	/**
+	 * For each of the 3^8 ways an edge of the board can be filled, the discs on it (of either player) that can never 
+	 * be flipped. A disc on an edge can only be flipped along the edge, so this only has to consider moves on the edge, 
+	 * in any order and by either player. Moves are allowed even if they flip nothing on the edge, as they could be 
+	 * made by flipping discs in another direction. 
+	 */
+	private static final byte[] EDGE_STABLE = new byte[6561];
+
+	static {
+		for(int i = 0; i < 256; i++)
+			for(int bit = 7; bit >= 0; bit--)
+				TO_BASE3[i] = TO_BASE3[i] * 3 + ((i >>> bit) & 1);
+
+		final boolean[] done = new boolean[6561];
+		for(int a = 0; a < 256; a++)
+			for(int b = 0; b < 256; b++)
+				if((a & b) == 0)
+					edgeStable(a, b, done);
+	}
+
+	/**
+	 * Fills in EDGE_STABLE for an edge, and for every edge that can be reached from it. A disc is stable if it is there, 
+	 * and stays the same colour after every move on the edge. 
+	 * @param a The discs of one player on the edge
+	 * @param b The discs of the other player on the edge
+	 * @param done Which entries have been filled in
+	 * @return The stable discs on the edge
+	 */
+	private static int edgeStable(int a, int b, boolean[] done)
+	{
+		final int index = TO_BASE3[a] + 2 * TO_BASE3[b];
+		if(done[index])
+			return EDGE_STABLE[index] & 0xFF; 
+
+		int stable = a | b; 
+		for(int sq = 0; sq < 8; sq++)
+		{
+			final int placed = 1 << sq; 
+			if(((a | b) & placed) != 0)
+				continue; 
+
+			final int aFlips = edgeFlips(a, b, sq);
+			stable &= edgeStable(a | placed | aFlips, b & ~aFlips, done) & ~aFlips; 
+
+			final int bFlips = edgeFlips(b, a, sq);
+			stable &= edgeStable(a & ~bFlips, b | placed | bFlips, done) & ~bFlips; 
+		}
+
+		done[index] = true; 
+		EDGE_STABLE[index] = (byte) stable; 
+		return stable; 
+	}
+
+	/**
+	 * Finds the discs flipped along an edge by a move. 
+	 * @param own The discs of the player moving
+	 * @param opp The discs of the other player
+	 * @param sq The square moved to (0 to 7)
+	 * @return The discs flipped
+	 */
+	private static int edgeFlips(int own, int opp, int sq)
+	{
+		int flips = 0; 
+		for(int step = -1; step <= 1; step += 2)
+		{
+			int run = 0; 
+			int i = sq + step; 
+			while(i >= 0 && i < 8 && (opp & (1 << i)) != 0)
+			{
+				run |= 1 << i; 
+				i += step; 
+			}
+			if(i >= 0 && i < 8 && (own & (1 << i)) != 0)
+				flips |= run; 
+		}
+		return flips; 
+	}
+
+	/**
+	 * Stores the representation of the board as one bitboard per player. 
+	 * Bit (r * 8 + c) is set if the player owns the tile at r, c. 
+	 */
+	private long ag1Discs;
+	private long ag2Discs;
 
 	/**
 	 * The current player
@@ -83,12 +216,22 @@ public class State {
 	private float PlayerTileWorth = 2 * D1;
 	private float OpponentTileWorth = 2 * D1;
 
+	/**
+	 * The Zobrist hash of the state. This is kept up to date as moves are made, so reading it is free. 
+	 */
+	private long hash; 
+
+	/**
+	 * The index of every pattern in Patterns. These are kept up to date as moves are made, so that the 
+	 * pattern-table evaluation only has to look up one weight per pattern. null unless Patterns.TRACKED. 
+	 */
+	private final int[] patterns = Patterns.TRACKED ? new int[Patterns.INSTANCES] : null;
+
 	/**
 	 * Creates a new state based on the initial board, and player 1 as the first player 
 	 */
 	public State() {
-		this.board = clone(INITIAL_BOARD);
-		this.player = AG1; 
+		this(AG1, INITIAL_BOARD);
 	}
 
 	/**
@@ -99,7 +242,29 @@ public class State {
 	 */
 	private State(byte player, byte[][] board)
 	{
-		this.board = board; 
+		for(int r = 0; r < SIZE; r++)
+		{
+			for(int c = 0; c < SIZE; c++)
+			{
+				if(board[r][c] == AG1)
+					ag1Discs |= 1L << (r * SIZE + c);
+				else if(board[r][c] == AG2)
+					ag2Discs |= 1L << (r * SIZE + c);
+			}
+		}
+		this.player = player; 
+		this.hash = computeHash();
+		if(Patterns.TRACKED)
+			Patterns.compute(ag1Discs, ag2Discs, patterns);
+	}
+
+	/**
+	 * Constructs a new state directly from the bitboards. Used by clone. 
+	 */
+	private State(byte player, long ag1Discs, long ag2Discs)
+	{
+		this.ag1Discs = ag1Discs;
+		this.ag2Discs = ag2Discs;
 		this.player = player; 
 	}
 
@@ -107,7 +272,10 @@ public class State {
 	 * Clones the current state, and returns it. 
 	 */
 	public State clone() {
-		final State ans = new State(this.player, clone(this.board));
+		final State ans = new State(this.player, this.ag1Discs, this.ag2Discs);
+		ans.hash = this.hash; 
+		if(Patterns.TRACKED)
+			System.arraycopy(this.patterns, 0, ans.patterns, 0, Patterns.INSTANCES);
 		ans.PlayerTiles = this.PlayerTiles;
 		ans.OpponentTiles = this.OpponentTiles; 
 
@@ -127,8 +295,9 @@ public class State {
 	{
 		final byte r = action[0]; 
 		final byte c = action[1]; 
+		final int sq = r * SIZE + c; 
 		
-		if(board[r][c] != CLR)
+		if(((ag1Discs | ag2Discs) & (1L << sq)) != 0)
 		{
 			boolean wasOpponent = player == OthelloAI.OPPONENT;
 			
@@ -137,17 +306,10 @@ public class State {
 			return null; //System.exit(0);
 		}
 
-		//We need to assign boolean values first otherwise short circuiting could end moves early
-		boolean m1 = moveHelper(player, r,  c, (byte) -1, (byte) -1);
-		boolean m2 = moveHelper(player, r,  c, (byte) -1, (byte)  0);
-		boolean m3 = moveHelper(player, r,  c, (byte) -1, (byte)  1);
-		boolean m4 = moveHelper(player, r,  c, (byte)  0, (byte) -1);
-		boolean m5 = moveHelper(player, r,  c, (byte)  0, (byte)  1);
-		boolean m6 = moveHelper(player, r,  c, (byte)  1, (byte) -1);
-		boolean m7 = moveHelper(player, r,  c, (byte)  1, (byte)  0);
-		boolean m8 = moveHelper(player, r,  c, (byte)  1, (byte)  1);
+		//All eight directions are resolved at once, so there is no short circuiting to worry about
+		final long flips = getFlips(player, sq);
 		
-		if(!m1 && !m2 && !m3 && !m4 && !m5 && !m6 && !m7 && !m8)
+		if(flips == 0)
 		{
 			boolean wasOpponent = player == OthelloAI.OPPONENT;
 			System.out.println((wasOpponent ? "Opponent" : "We") + " tried to a move to a loction where no pieces would be trapped.");
@@ -155,8 +317,11 @@ public class State {
 			return null;// System.exit(0);
 		}
 
+		place(player, sq, flips);
+
 		//Swap the player. Should have same effect as returning pass
 		this.player = (this.player == AG1) ? AG2 : AG1;
+		this.hash ^= Zobrist.SIDE;
 
 		return this; 
 	}
@@ -169,29 +334,334 @@ public class State {
 	public List<byte[]> getMoves(byte player) {
 		final List<byte[]> moves = new ArrayList<byte[]>();//Arraylists and LinkedLists have about the same performance here
 
-		for(byte r = 0; r < board.length; r++)
+		//Walk the set bits from lowest to highest, which is the same row-major order as scanning the board
+		for(long m = getMoveMask(player); m != 0; m &= m - 1)
+			moves.add(squareToAction(Long.numberOfTrailingZeros(m)));
+
+		return moves; 
+	}
+	
+	/**
+	 * Calculates every square the given player can move to at once. 
+	 * For each direction, a Kogge-Stone occluded fill is run from the player's discs through the opponent's discs; 
+	 * any empty square just past the end of one of those runs is a legal move. 
+	 * @param player The player to get the moves for
+	 * @return A bitboard with bit (r * 8 + c) set if the player can move at r, c
+	 */
+	public long getMoveMask(byte player) { return getMoveMask(getDiscs(player), getDiscs(other(player))); }
+
+	/**
+	 * Calculates the legal moves on a pair of bitboards, without needing a state. 
+	 * @param own The discs of the player moving
+	 * @param opp The discs of their opponent
+	 * @return A bitboard with bit (r * 8 + c) set if the player can move at r, c
+	 */
+	public static long getMoveMask(long own, long opp)
+	{
+		long moves = 0; 
+		for(int d = 0; d < 8; d++)
+			moves |= shift(fill(own, opp, d) & opp, d);
+
+		return moves & ~(own | opp);
+	}
+
+	/**
+	 * Used to check if a player has any move avaliable. 
+	 * @param player The player
+	 * @return true if the player has at least one legal move; false if they must pass. 
+	 */
+	public boolean hasMoves(byte player) { return getMoveMask(player) != 0; }
+
+	/**
+	 * Returns the number of legal moves a player has without building a list of them. 
+	 * @param player The player
+	 * @return The number of legal moves
+	 */
+	public int getMoveCount(byte player) { return Long.bitCount(getMoveMask(player)); }
+
+	/**
+	 * Calculates the discs that would be flipped if the given player moved at a square. 
+	 * @param player The player moving
+	 * @param sq The square index (r * 8 + c) being moved to
+	 * @return A bitboard of the discs that would be flipped, or 0 if the move would trap nothing
+	 */
+	public long getFlips(byte player, int sq) { return getFlips(getDiscs(player), getDiscs(other(player)), sq); }
+
+	/**
+	 * Calculates the discs that would be flipped by a move on a pair of bitboards, without needing a state. 
+	 * @param own The discs of the player moving
+	 * @param opp The discs of their opponent
+	 * @param sq The square index (r * 8 + c) being moved to
+	 * @return A bitboard of the discs that would be flipped, or 0 if the move would trap nothing
+	 */
+	public static long getFlips(long own, long opp, int sq)
+	{
+		long flips = 0; 
+		for(int d = 0; d < 8; d++)
+			flips |= getFlips(own, opp, sq, d);
+		return flips; 
+	}
+
+	/**
+	 * Calculates the discs that would be flipped in a single direction if the given player moved at a square. 
+	 * @param player The player moving
+	 * @param sq The square index (r * 8 + c) being moved to
+	 * @param d The direction index
+	 * @return A bitboard of the discs that would be flipped in that direction
+	 */
+	private long getFlips(byte player, int sq, int d) { return getFlips(getDiscs(player), getDiscs(other(player)), sq, d); }
+
+	/**
+	 * Calculates the discs that would be flipped in a single direction by a move on a pair of bitboards. 
+	 */
+	private static long getFlips(long own, long opp, int sq, int d)
+	{
+		final long placed = 1L << sq; 
+
+		//The fill contains the moved square and the run of opponent discs next to it
+		final long run = fill(placed, opp, d);
+
+		//The run is only trapped if it is capped by one of our discs
+		return ((shift(run, d) & own) != 0) ? (run & opp & ~placed) : 0; 
+	}
+
+	/**
+	 * Shifts a bitboard one square in a direction, dropping anything that would wrap around the board. 
+	 * @param b The bitboard
+	 * @param d The direction index
+	 * @return The shifted bitboard
+	 */
+	private static long shift(long b, int d)
+	{
+		final int s = DIR_SHIFTS[d];
+		return ((s > 0) ? (b << s) : (b >>> -s)) & DIR_MASKS[d];
+	}
+
+	/**
+	 * Finds every square next to (in any of the eight directions) a square in a bitboard. 
+	 * @param b The bitboard
+	 * @return The squares next to the bitboard's squares, which may include squares in the bitboard itself
+	 */
+	public static long getNeighbours(long b)
+	{
+		long ans = 0; 
+		for(int d = 0; d < 8; d++)
+			ans |= shift(b, d);
+		return ans; 
+	}
+
+	/**
+	 * Kogge-Stone occluded fill. Spreads the generator bits in a direction, but only through the propagator bits. 
+	 * @param gen The bits to start the fill from
+	 * @param pro The bits the fill is allowed to pass through
+	 * @param d The direction index
+	 * @return The generator bits along with every propagator bit they could reach
+	 */
+	private static long fill(long gen, long pro, int d)
+	{
+		final int s = DIR_SHIFTS[d];
+		pro &= DIR_MASKS[d];
+
+		if(s > 0)
+		{
+			gen |= pro & (gen << s);
+			pro &= (pro << s);
+			gen |= pro & (gen << (s << 1));
+			pro &= (pro << (s << 1));
+			gen |= pro & (gen << (s << 2));
+		}
+		else
 		{
-			for(byte c = 0; c < board.length; c++)
+			final int n = -s;
+			gen |= pro & (gen >>> n);
+			pro &= (pro >>> n);
+			gen |= pro & (gen >>> (n << 1));
+			pro &= (pro >>> (n << 1));
+			gen |= pro & (gen >>> (n << 2));
+		}
+		return gen; 
+	}
+
+	/**
+	 * Places a disc for the player at a square and flips the given discs, keeping the tile counts up to date. 
+	 * Placing on a square the player already owns does not count the square a second time. 
+	 * @param player The player moving
+	 * @param sq The square index (r * 8 + c) being moved to
+	 * @param flips The discs to flip
+	 */
+	private void place(byte player, int sq, long flips)
+	{
+		final long placed = 1L << sq; 
+		final boolean agent = player == OthelloAI.AGENT_PLAYER;
+		final long[] playerKeys = Zobrist.SQUARES[player];
+		final long[] otherKeys = Zobrist.SQUARES[other(player)];
+
+		//If the square is not the player's already, then claim it as the player's
+		if((getDiscs(player) & placed) == 0)
+		{
+			hash ^= playerKeys[sq];
+
+			if((getDiscs(other(player)) & placed) != 0)
+				hash ^= otherKeys[sq];
+
+			if(agent)
+			{
+				PlayerTiles++;
+				PlayerTileWorth += SQUARE_WEIGHTS[sq];
+			}
+			else
 			{
-				if(canMove(player, r, c))
-					moves.add(new byte[] {r, c});
+				OpponentTiles++; 
+				OpponentTileWorth += SQUARE_WEIGHTS[sq];
 			}
 		}
-		return moves; 
-	}
-	
-	public void getMoves(APQ<EvaluatedAction> apq, byte player) {
-		for(byte r = 0; r < board.length; r++)
+
+		//The placed square might already have been the player's, or the other player's
+		if(Patterns.TRACKED)
+			Patterns.update(patterns, sq, player - getSquare(sq >> 3, sq & 7), flips, player - other(player));
+
+		//Keep track of the tiles that belong to each player
+		for(long f = flips; f != 0; f &= f - 1)
 		{
-			for(byte c = 0; c < board.length; c++)
+			final int s = Long.numberOfTrailingZeros(f);
+
+			hash ^= playerKeys[s] ^ otherKeys[s];
+
+			if(agent)
+			{
+				PlayerTiles++;
+				PlayerTileWorth += SQUARE_WEIGHTS[s];
+
+				OpponentTiles--; 
+				OpponentTileWorth -= SQUARE_WEIGHTS[s];
+			}
+			else
 			{
-				if(canMove(player, r, c))
-				{
-					final byte[] action = new byte[] {r, c};
-					apq.insert(new EvaluatedAction(action, Game.result(this, action)));
-				}
+				PlayerTiles--;
+				PlayerTileWorth -= SQUARE_WEIGHTS[s];
+
+				OpponentTiles++; 
+				OpponentTileWorth += SQUARE_WEIGHTS[s];
 			}
 		}
+
+		if(player == AG1)
+		{
+			ag1Discs |= placed | flips;
+			ag2Discs &= ~(placed | flips);
+		}
+		else
+		{
+			ag2Discs |= placed | flips;
+			ag1Discs &= ~(placed | flips);
+		}
+	}
+
+	/**
+	 * Makes a move for the current player in place, recording what is needed to take it back on the undo stack. 
+	 * Unlike move, this does not print anything, and the state is left unchanged if the move is not legal. 
+	 * @param undo The undo stack to record the move on
+	 * @param sq The square index (r * 8 + c) to move to
+	 * @return true if the move was made; false if it would not flip anything
+	 */
+	public boolean makeMove(UndoStack undo, int sq)
+	{
+		if(((ag1Discs | ag2Discs) & (1L << sq)) != 0)
+			return false; 
+
+		final long flips = getFlips(player, sq);
+
+		if(flips == 0)
+			return false; 
+
+		save(undo, (byte) sq, flips);
+		place(player, sq, flips);
+		this.player = other(this.player);
+		this.hash ^= Zobrist.SIDE;
+
+		return true; 
+	}
+
+	/**
+	 * Passes the turn in place, recording it on the undo stack so that it can be taken back with unmakePass. 
+	 * @param undo The undo stack to record the pass on
+	 */
+	public void makePass(UndoStack undo)
+	{
+		save(undo, UndoStack.NO_SQUARE, 0);
+		this.player = other(this.player);
+		this.hash ^= Zobrist.SIDE;
+	}
+
+	/**
+	 * Takes back the most recent move made with makeMove. 
+	 * @param undo The undo stack the move was recorded on
+	 */
+	public void unmakeMove(UndoStack undo)
+	{
+		restore(undo);
+	}
+
+	/**
+	 * Takes back the most recent pass made with makePass. 
+	 * @param undo The undo stack the pass was recorded on
+	 */
+	public void unmakePass(UndoStack undo)
+	{
+		restore(undo);
+	}
+
+	/**
+	 * Pushes the current player and counters onto the undo stack along with the move about to be made. 
+	 */
+	private void save(UndoStack undo, byte sq, long flips)
+	{
+		final int i = undo.push();
+
+		undo.squares[i] = sq;
+		undo.flips[i] = flips;
+		undo.players[i] = player;
+		undo.hashes[i] = hash;
+		undo.playerTiles[i] = PlayerTiles;
+		undo.opponentTiles[i] = OpponentTiles;
+		undo.playerTileWorth[i] = PlayerTileWorth;
+		undo.opponentTileWorth[i] = OpponentTileWorth;
+	}
+
+	/**
+	 * Pops the top entry off of the undo stack and restores the state to how it was before that move. 
+	 */
+	private void restore(UndoStack undo)
+	{
+		final int i = undo.pop();
+
+		final byte sq = undo.squares[i];
+		final long flips = undo.flips[i];
+		final long placed = (sq == UndoStack.NO_SQUARE) ? 0 : (1L << sq);
+
+		this.player = undo.players[i];
+		this.hash = undo.hashes[i];
+
+		//Passes place nothing, and so change no patterns
+		if(Patterns.TRACKED && placed != 0)
+			Patterns.update(patterns, sq, -player, flips, other(player) - player);
+
+		//Remove the placed disc, and give the flipped discs back to the other player
+		if(this.player == AG1)
+		{
+			ag1Discs &= ~(placed | flips);
+			ag2Discs |= flips;
+		}
+		else
+		{
+			ag2Discs &= ~(placed | flips);
+			ag1Discs |= flips;
+		}
+
+		PlayerTiles = undo.playerTiles[i];
+		OpponentTiles = undo.opponentTiles[i];
+		PlayerTileWorth = undo.playerTileWorth[i];
+		OpponentTileWorth = undo.opponentTileWorth[i];
 	}
 
 	/**
@@ -203,21 +673,12 @@ public class State {
 	 */
 	public boolean canMove(byte player, byte r, byte c)
 	{
-		if(board[r][c] != CLR)
+		final int sq = r * SIZE + c; 
+		
+		if(((ag1Discs | ag2Discs) & (1L << sq)) != 0)
 			return false; 
 
-		//Short circuiting ensures that we only process these until we get to the first one that is true
-		//Order based on cache
-		return 
-				canMoveHelper(player, r,  c, (byte)  0, (byte) -1) ||
-				canMoveHelper(player, r,  c, (byte)  0, (byte)  1) ||
-				canMoveHelper(player, r,  c, (byte) -1, (byte) -1) || 
-				canMoveHelper(player, r,  c, (byte) -1, (byte)  0) ||
-				canMoveHelper(player, r,  c, (byte) -1, (byte)  1) ||
-				canMoveHelper(player, r,  c, (byte)  1, (byte) -1) ||
-				canMoveHelper(player, r,  c, (byte)  1, (byte)  0) ||
-				canMoveHelper(player, r,  c, (byte)  1, (byte)  1);
-
+		return getFlips(player, sq) != 0; 
 	}
 
 	/**
@@ -231,42 +692,11 @@ public class State {
 	 */
 	public boolean canMoveHelper(byte player, byte x, byte y, byte vr, byte vc)
 	{
-		//If our velocity is 0, return false to prevent an infinite loop. 
+		//If our velocity is 0, return false as there is no direction to check. 
 		if(vr == 0 && vc == 0)
 			return false; 
 
-		//Determine the first adjacent tile to check. 
-		byte r = (byte) (x + vr); 
-		byte c = (byte) (y + vc); 
-
-		//Make sure the tile is in bounds. 
-		boolean inBounds = (r >= 0 && c >= 0 && r < board.length && c < board.length); 
-
-		//if the tile is not, return false. 
-		if(!inBounds)
-			return false; 
-
-		//Ensure the adjacent tile is the other player. 
-		if(board[r][c] == player || board[r][c] == CLR) 
-			return false; 
-
-		//Increment r and c by the velocity again 
-		r += vr; 
-		c += vc; 
-
-		//While r and c are still in bounds, 
-		while (r >= 0 && c >= 0 &&  r < board.length && c < board.length)
-		{
-			//If we find our player again, return true as we can move. 
-			if(board[r][c] == player)
-				return true; 
-			if(board[r][c] == CLR) //If we find a clear space, return false. 
-				return false; 
-
-			r += vr; 
-			c += vc; 
-		}
-		return false; //We ran out of bounds, return false
+		return getFlips(player, x * SIZE + y, VELOCITY_TO_DIR[(vr + 1) * 3 + (vc + 1)]) != 0; 
 	}
 
 	/**
@@ -280,96 +710,29 @@ public class State {
 	 */
 	public boolean moveHelper(byte player, byte x, byte y, byte vr, byte vc)
 	{
-		//If our velocity is 0, return false to prevent an infinite loop. 
+		//If our velocity is 0, return false as there is no direction to check. 
 		if(vr == 0 && vc == 0)
 			return false; 
 
-		//Determine the first adjacent tile to check. 
-		byte r = (byte) (x + vr); 
-		byte c = (byte) (y + vc); 
-
-		//Make sure the tile is in bounds. 
-		boolean inBounds = (r >= 0 && c >= 0 && r < board.length && c < board.length); 
-
-		//if the tile is not, return false. 
-		if(!inBounds)
-			return false; 
+		final int sq = x * SIZE + y; 
+		final long flips = getFlips(player, sq, VELOCITY_TO_DIR[(vr + 1) * 3 + (vc + 1)]);
 
-		//Ensure the adjacent tile is the other player. 
-		if(board[r][c] == player || board[r][c] == CLR) 
+		if(flips == 0)
 			return false; 
 
-		//Increment r and c by the velocity again 
-		r += vr; 
-		c += vc; 
-
-		//While r and c are still in bounds, 
-		while (r >= 0 && c >= 0 &&  r < board.length && c < board.length)
-		{
-			//If the board at r, c is the player, 
-			if(board[r][c] == player)
-			{
-
-				//If the board at [x][y] is not the player, then claim x, y as the player's
-				if(board[x][y] != player)
-				{
-					if(player == OthelloAI.AGENT_PLAYER)
-					{
-						PlayerTiles++;
-						PlayerTileWorth += STATE_WEIGHTS[x][y];
-					}
-					else
-					{
-						OpponentTiles++; 
-						OpponentTileWorth += STATE_WEIGHTS[x][y];
-					}
-				}
-
-				board[x][y] = player; 
-
-				//Back track r,c until it is the same as x,y
-				while(x != r || y != c)
-				{ 
-
-					//Keep track of the tiles that belong to each player
-					if(board[r][c] != player)
-					{
-						if(player == OthelloAI.AGENT_PLAYER)
-						{
-							PlayerTiles++;
-							PlayerTileWorth += STATE_WEIGHTS[r][c];
-
-							OpponentTiles--; 
-							OpponentTileWorth -= STATE_WEIGHTS[r][c];
-						}
-						else if(player == OthelloAI.OPPONENT) //Should just be else
-						{
-							PlayerTiles--;
-							PlayerTileWorth -= STATE_WEIGHTS[r][c];
-
-							OpponentTiles++; 
-							OpponentTileWorth += STATE_WEIGHTS[r][c];
-						}
-						board[r][c] = player;
-					}
-
-					r -= vr;
-					c -= vc; 
-
-				}
-
-				return true; 
-			}
-
-			if(board[r][c] == CLR)
-				return false; 
-
-			r += vr; 
-			c += vc; 
-		}
-		return false; 
+		place(player, sq, flips);
+		return true; 
 	}
 
+	/**
+	 * Converts a square index (r * 8 + c) to the byte[] representation of an action. 
+	 * @param sq The square index
+	 * @return The byte[] {r, c} representation of the action
+	 */
+	public static final byte[] squareToAction(int sq)
+	{
+		return new byte[] {(byte) (sq >> 3), (byte) (sq & 7)};
+	}
 
 	/**
 	 * Converts a byte[] representation of an action to the string representation used by the referee. 
@@ -412,16 +775,18 @@ public class State {
 	public void displayMoves(byte player)
 	{
 
-		for(byte r = 0; r < board.length; r++)
+		final long moves = getMoveMask(player);
+
+		for(byte r = 0; r < SIZE; r++)
 		{
-			for(byte c = 0; c < board.length; c++)
+			for(byte c = 0; c < SIZE; c++)
 			{
 				if(c == 0)
 					System.out.print((8 - r) + "|");
-				if(canMove(player, r, c))
+				if((moves & (1L << (r * SIZE + c))) != 0)
 					System.out.print("X");
 				else
-					System.out.print(board[r][c]);
+					System.out.print(getSquare(r, c));
 			}
 			System.out.println();
 		}
@@ -431,14 +796,14 @@ public class State {
 	public void display()
 	{
 
-		for(byte r = 0; r < board.length; r++)
+		for(byte r = 0; r < SIZE; r++)
 		{
-			for(byte c = 0; c < board.length; c++)
+			for(byte c = 0; c < SIZE; c++)
 			{
 //				if(c == 0)
 //					System.out.print((8 - r) + "|");
 //				else
-					System.out.print(board[r][c]);
+					System.out.print(getSquare(r, c));
 			}
 			System.out.println();
 		}
@@ -446,29 +811,15 @@ public class State {
 	}
 
 
-	//TODO: DO BETTER!, STORE THIS AND UTILITY SOMEHWERE?; Try using byte to conserve memory
 	/**
-	 * Calculates the utility/evaluation function. Currently, we use the same function
+	 * Calculates the utility/evaluation function for our agent (OthelloAI.AGENT_PLAYER). Currently, we use the same function
 	 * for utility and evaluation as they can both be used on any state. 
 	 * @return The evaluation of the current state
+	 * @see HeuristicEvaluator
 	 */
 	public float getEvaluation()
 	{
-		final int PlayerMoves = getMoves(OthelloAI.AGENT_PLAYER).size();
-		final int OpponentMoves = getMoves(OthelloAI.OPPONENT).size();
-
-		final byte[] PlayerStable = getStableDiscCount(OthelloAI.AGENT_PLAYER);
-		final byte[] OpponentStable = getStableDiscCount(OthelloAI.OPPONENT);
-
-//		final float progress = (PlayerTiles + OpponentTiles) / 64.0f; 
-		
-		//Number of pieces involved in move 
-		//Keep list of open spaces to not brute force moves
-		//TODO: Try to consider Semistable discs?
-
-		final float h1 = 2.0f * (PlayerStable[4] + (56 - OpponentStable[4])) + (PlayerTileWorth - OpponentTileWorth) + (PlayerMoves - OpponentMoves);
-		final float h2 = Math.max(2.5f*(PlayerMoves - OpponentMoves), 2.5f*(PlayerTiles - OpponentTiles));
-		return Math.max(h1,  h2);
+		return HeuristicEvaluator.DEFAULT.evaluate(this, OthelloAI.AGENT_PLAYER);
 	}
 
 	/**
@@ -477,6 +828,7 @@ public class State {
 	 */
 	public State pass() {
 		this.player = (this.player == AG1) ? AG2 : AG1; 
+		this.hash ^= Zobrist.SIDE;
 		return this; 
 	}
 
@@ -498,7 +850,84 @@ public class State {
 //	}
 
 	/**
-	 * Gets the number of stable discs for a given player. 
+	 * Calculates a set of discs that can never be flipped, on a pair of bitboards. 
+	 * @param own The discs to find the stable discs of
+	 * @param opp The discs of the other player
+	 * @return A bitboard of stable discs owned by own
+	 */
+	public static long getStableDiscs(long own, long opp) { return getStableMask(own, opp) & own; }
+
+	/**
+	 * Calculates the stable discs of both players at once. A disc is stable if, along each of the four lines through it, 
+	 * the line is full, the disc is next to the edge of the board, or it is next to a stable disc of its own colour. 
+	 * This is repeated until no more discs are found, starting from the discs that are stable along the edges 
+	 * (found exactly with EDGE_STABLE) and the discs whose four lines are all full. 
+	 * <br />
+	 * This does not find every stable disc, but every disc it finds is stable, and it finds every disc that 
+	 * getStableDiscCount does. Nothing is allocated, so it is cheap enough to use in every evaluation. 
+	 * @param a The discs of one player
+	 * @param b The discs of the other player
+	 * @return A bitboard of the stable discs of both players. AND it with a player's discs to get theirs. 
+	 */
+	public static long getStableMask(long a, long b)
+	{
+		final long empty = ~(a | b);
+
+		//A line with no empty squares can never have a move on it, so nothing on it can be flipped along it. 
+		//Along with the edges, these are the squares where a line cannot be used to flip a disc. 
+		final long lockedEW = ~(fill(empty, -1L, 0) | fill(empty, -1L, 1)) | EDGES[0] | EDGES[1];
+		final long lockedNS = ~(fill(empty, -1L, 2) | fill(empty, -1L, 3)) | EDGES[2] | EDGES[3];
+		final long lockedDiag = ~(fill(empty, -1L, 4) | fill(empty, -1L, 5)) | EDGES[4] | EDGES[5];
+		final long lockedAnti = ~(fill(empty, -1L, 6) | fill(empty, -1L, 7)) | EDGES[6] | EDGES[7];
+
+		//Discs that no line can flip, along with the discs that the edge tables show can never be flipped
+		final long seed = (a | b) & ((lockedEW & lockedNS & lockedDiag & lockedAnti) | getEdgeStable(a, b));
+
+		long stable = seed; 
+		while(true)
+		{
+			//Bit x of shift(s, d ^ 1) is set if the neighbour of x in direction d is in s. 
+			//A stable neighbour only protects a disc if it is the same colour. 
+			final long sa = stable & a; 
+			final long sb = stable & b; 
+			final long next = seed | 
+					(a & (lockedEW | shift(sa, 1) | shift(sa, 0)) & (lockedNS | shift(sa, 3) | shift(sa, 2)) & 
+						(lockedDiag | shift(sa, 5) | shift(sa, 4)) & (lockedAnti | shift(sa, 7) | shift(sa, 6))) | 
+					(b & (lockedEW | shift(sb, 1) | shift(sb, 0)) & (lockedNS | shift(sb, 3) | shift(sb, 2)) & 
+						(lockedDiag | shift(sb, 5) | shift(sb, 4)) & (lockedAnti | shift(sb, 7) | shift(sb, 6)));
+
+			if(next == stable)
+				return stable; 
+			stable = next; 
+		}
+	}
+
+	/**
+	 * Finds the discs on the four edges of the board that can never be flipped, using EDGE_STABLE. 
+	 * The columns are read as the rows of the transposed board. 
+	 * @param a The discs of one player
+	 * @param b The discs of the other player
+	 * @return A bitboard of the edge discs of both players that can never be flipped
+	 */
+	private static long getEdgeStable(long a, long b)
+	{
+		final long ta = transpose(a);
+		final long tb = transpose(b);
+
+		final long rows = (long) (EDGE_STABLE[edgeIndex(a, b)] & 0xFF) | ((long) (EDGE_STABLE[edgeIndex(a >>> 56, b >>> 56)] & 0xFF) << 56);
+		final long cols = (long) (EDGE_STABLE[edgeIndex(ta, tb)] & 0xFF) | ((long) (EDGE_STABLE[edgeIndex(ta >>> 56, tb >>> 56)] & 0xFF) << 56);
+
+		return rows | transpose(cols);
+	}
+
+	/**
+	 * Returns the index into EDGE_STABLE of the low 8 bits of a pair of bitboards
+	 */
+	private static int edgeIndex(long a, long b) { return TO_BASE3[(int) (a & 0xFF)] + 2 * TO_BASE3[(int) (b & 0xFF)]; }
+
+	/**
+	 * Gets the number of stable discs for a given player, along with how many of the player's discs are stable along 
+	 * 0 to 3 of their lines. This is a search from the corners; getStableMask finds more stable discs, much faster. 
 	 * @param player The byte representation of the player (AG1 or AG2)
 	 * @return The number of stable discs owned by the player
 	 */
@@ -508,9 +937,9 @@ public class State {
 		byte[] ans = new byte[5]; 
 
 		//Tracks the stable discs
-		final boolean[][] stable = new boolean[board.length][board.length];
+		final boolean[][] stable = new boolean[SIZE][SIZE];
 		//Tracks the visited discs 
-		final boolean[][] visited = new boolean[board.length][board.length];
+		final boolean[][] visited = new boolean[SIZE][SIZE];
 
 		//Used for the search queue, and adds all the corners to the list 
 		final LinkedList<byte[]> queue = new LinkedList<byte[]>(); //ArrayLists and LinkedLists both have approximately the same efficiency here
@@ -536,20 +965,20 @@ public class State {
 			final byte c = coord[1]; 
 
 			//Ensure coordinate is in bounds 
-			if(r < 0 || c < 0 || r >= board.length || c >= board.length)
+			if(r < 0 || c < 0 || r >= SIZE || c >= SIZE)
 				continue; 
 
 			//If the coordinate is not the same type as the player, then continue as we know
 			//the current disc cannot be stable for the player
-			if(this.board[r][c] != player)
+			if(getSquare(r, c) != player)
 				continue; 
 
 			//Booleans to determine bound checking in each direction. 
 			final boolean cellNorth = (c - 1 >= 0);
-			final boolean cellSouth = (c + 1 < board.length);
+			final boolean cellSouth = (c + 1 < SIZE);
 
 			final boolean cellWest = (r - 1 >= 0);
-			final boolean cellEast = (r + 1 < board.length);
+			final boolean cellEast = (r + 1 < SIZE);
 
 			final boolean cellNorthWest = cellNorth && cellWest; 
 			final boolean cellSouthEast = cellSouth && cellEast;
@@ -653,22 +1082,6 @@ public class State {
 		return ans; 
 	}
 
-	/**
-	 * Helper function for cloning a byte array. Used to duplicate the board. 
-	 * @param b The byte array to clone
-	 * @return A byte array that is the same as b, but without parody. 
-	 */
-	private static final byte[][] clone(byte[][] b)
-	{
-		final byte[][] ans = new byte[b.length][b[0].length];
-
-		for(int r = 0; r < b.length; r++)
-			for(int c = 0; c < b[r].length; c++)
-				ans[r][c] = b[r][c];
-
-		return ans; 
-	}
-
 	/**
 	 * Return the byte representation of the current player
 	 * @return Return the byte representation of the current player
@@ -687,7 +1100,264 @@ public class State {
 	 */
 	public byte getOpponentTiles() { return OpponentTiles; }	
 	
+	/**
+	 * Returns the number of tiles that a player has
+	 * @param player The player
+	 * @return Returns the number of tiles that the player has
+	 */
+	public int getTiles(byte player) { return (player == OthelloAI.AGENT_PLAYER) ? PlayerTiles : OpponentTiles; }
+	
+	/**
+	 * Returns the total worth (see SQUARE_WEIGHTS) of the tiles that a player has
+	 * @param player The player
+	 * @return The total worth of the player's tiles
+	 */
+	public float getTileWorth(byte player) { return (player == OthelloAI.AGENT_PLAYER) ? PlayerTileWorth : OpponentTileWorth; }
+	
+	/**
+	 * Returns the byte representation (CLR, AG1 or AG2) of the tile at r, c
+	 * @param r The r coordinate
+	 * @param c The c coordinate
+	 * @return The byte representation of the tile at r, c
+	 */
+	public byte getSquare(int r, int c) 
+	{
+		final long bit = 1L << (r * SIZE + c);
+		return ((ag1Discs & bit) != 0) ? AG1 : ((ag2Discs & bit) != 0) ? AG2 : CLR; 
+	}
+
+	/**
+	 * Returns the Zobrist hash of the state, which covers every disc along with the player to move. 
+	 * @return The 64-bit hash of the state
+	 */
+	public long getHash() { return hash; }
+
+	/**
+	 * Calculates the Zobrist hash from scratch. This should always equal getHash(), 
+	 * and is mostly useful for verifying that the incremental updates are correct. 
+	 * @return The 64-bit hash of the state
+	 */
+	public long computeHash()
+	{
+		long h = (player == AG2) ? Zobrist.SIDE : 0; 
+
+		for(long b = ag1Discs; b != 0; b &= b - 1)
+			h ^= Zobrist.SQUARES[AG1][Long.numberOfTrailingZeros(b)];
+
+		for(long b = ag2Discs; b != 0; b &= b - 1)
+			h ^= Zobrist.SQUARES[AG2][Long.numberOfTrailingZeros(b)];
+
+		return h; 
+	}
+
+	/**
+	 * The number of symmetries of the board: the identity, three rotations and four reflections
+	 */
+	public static final int SYMMETRIES = 8; 
+
+	/**
+	 * Applies one of the eight symmetries of the board to a bitboard. Bit 0 of sym flips the rows (r to 7 - r), 
+	 * bit 1 flips the columns (c to 7 - c), and bit 2 then swaps the rows and columns. 
+	 * @param b The bitboard
+	 * @param sym The symmetry, from 0 (unchanged) to 7
+	 * @return The transformed bitboard
+	 */
+	public static long transform(long b, int sym)
+	{
+		if((sym & 1) != 0)
+			b = Long.reverseBytes(b);
+		if((sym & 2) != 0)
+			b = mirror(b);
+		if((sym & 4) != 0)
+			b = transpose(b);
+		return b; 
+	}
+
+	/**
+	 * Undoes transform
+	 * @param b The transformed bitboard
+	 * @param sym The symmetry that was applied
+	 * @return The original bitboard
+	 */
+	public static long untransform(long b, int sym)
+	{
+		if((sym & 4) != 0)
+			b = transpose(b);
+		if((sym & 2) != 0)
+			b = mirror(b);
+		if((sym & 1) != 0)
+			b = Long.reverseBytes(b);
+		return b; 
+	}
+
+	/**
+	 * Applies a symmetry to a square index
+	 * @param sq The square index (r * 8 + c)
+	 * @param sym The symmetry
+	 * @return The index of the square it is moved to
+	 */
+	public static int transformSquare(int sq, int sym) { return Long.numberOfTrailingZeros(transform(1L << sq, sym)); }
+
+	/**
+	 * Undoes transformSquare
+	 * @param sq The transformed square index (r * 8 + c)
+	 * @param sym The symmetry that was applied
+	 * @return The original square index
+	 */
+	public static int untransformSquare(int sq, int sym) { return Long.numberOfTrailingZeros(untransform(1L << sq, sym)); }
+
+	/**
+	 * Flips the columns of a bitboard (c to 7 - c) by reversing the bits in each row
+	 */
+	private static long mirror(long b)
+	{
+		b = ((b >>> 1) & 0x5555555555555555L) | ((b & 0x5555555555555555L) << 1);
+		b = ((b >>> 2) & 0x3333333333333333L) | ((b & 0x3333333333333333L) << 2);
+		b = ((b >>> 4) & 0x0F0F0F0F0F0F0F0FL) | ((b & 0x0F0F0F0F0F0F0F0FL) << 4);
+		return b; 
+	}
+
+	/**
+	 * Swaps the rows and columns of a bitboard ((r, c) to (c, r)) with three delta swaps
+	 */
+	private static long transpose(long b)
+	{
+		long t; 
+		t = 0x0F0F0F0F00000000L & (b ^ (b << 28));
+		b ^= t ^ (t >>> 28);
+		t = 0x3333000033330000L & (b ^ (b << 14));
+		b ^= t ^ (t >>> 14);
+		t = 0x5500550055005500L & (b ^ (b << 7));
+		b ^= t ^ (t >>> 7);
+		return b; 
+	}
+
+	/**
+	 * Returns a copy of the state with a symmetry applied to the board. The player to move, the tile counts and the 
+	 * tile worths (STATE_WEIGHTS is symmetric) are all unchanged. 
+	 * @param sym The symmetry
+	 * @return The transformed state
+	 */
+	public State transform(int sym)
+	{
+		final State ans = clone();
+		ans.ag1Discs = transform(ag1Discs, sym);
+		ans.ag2Discs = transform(ag2Discs, sym);
+		ans.hash = ans.computeHash();
+		if(Patterns.TRACKED)
+			Patterns.compute(ans.ag1Discs, ans.ag2Discs, ans.patterns);
+		return ans; 
+	}
+
+	/**
+	 * Returns the Zobrist hash the state would have after a symmetry was applied to it, without building that state
+	 * @param sym The symmetry
+	 * @return The hash of the transformed state
+	 */
+	public long getHash(int sym)
+	{
+		if(sym == 0)
+			return hash; 
+
+		return ((player == AG2) ? Zobrist.SIDE : 0) ^ Zobrist.discs(AG1, transform(ag1Discs, sym)) ^ Zobrist.discs(AG2, transform(ag2Discs, sym)); 
+	}
+
+	/**
+	 * Finds the symmetry that gives the canonical form of the state: the one of its eight symmetric copies 
+	 * with the smallest bitboards (AG1's discs, then AG2's, compared as unsigned numbers). 
+	 * @return The symmetry, which can be passed to transform
+	 */
+	public int getCanonicalSymmetry() { return canonicalSymmetry(ag1Discs, ag2Discs); }
+
+	/**
+	 * Finds the symmetry that gives the canonical form of a position. Comparing the symmetric copies by their bitboards 
+	 * only takes a few instructions each, where hashing each copy would cost a lookup per row. 
+	 * @param ag1 The discs of AG1
+	 * @param ag2 The discs of AG2
+	 * @return The symmetry, which can be passed to transform
+	 */
+	public static int canonicalSymmetry(long ag1, long ag2)
+	{
+		int best = 0; 
+		long min1 = ag1, min2 = ag2; 
+
+		for(int sym = 1; sym < SYMMETRIES; sym++)
+		{
+			final long b1 = transform(ag1, sym);
+			final int c = Long.compareUnsigned(b1, min1);
+			if(c > 0)
+				continue; 
+
+			final long b2 = transform(ag2, sym);
+			if(c < 0 || Long.compareUnsigned(b2, min2) < 0)
+			{
+				min1 = b1; 
+				min2 = b2; 
+				best = sym; 
+			}
+		}
+		return best; 
+	}
+
+	/**
+	 * Returns the canonical hash of the state, which is the same for all eight of its symmetric copies. 
+	 * Used to store symmetric positions once (see OpeningBook, CachedEvaluator and PatternTrainer). 
+	 * @return The hash of the canonical form of the state
+	 */
+	public long getCanonicalHash() { return getHash(getCanonicalSymmetry()); }
+
+	/**
+	 * Returns the canonical hash of a position, which is the same as getCanonicalHash on a state with those discs 
+	 * and player to move
+	 * @param ag1 The discs of AG1
+	 * @param ag2 The discs of AG2
+	 * @param player The player to move
+	 * @return The hash of the canonical form of the position
+	 */
+	public static long canonicalHash(long ag1, long ag2, byte player)
+	{
+		final int sym = canonicalSymmetry(ag1, ag2);
+		return ((player == AG2) ? Zobrist.SIDE : 0) ^ Zobrist.discs(AG1, transform(ag1, sym)) ^ Zobrist.discs(AG2, transform(ag2, sym)); 
+	}
+
+	/**
+	 * Returns the canonical form of the state, which is the same for all eight of its symmetric copies
+	 * @return The symmetric copy of the state with the smallest bitboards
+	 */
+	public State canonical() { return transform(getCanonicalSymmetry()); }
+
+	/**
+	 * Returns the index of a pattern (see Patterns). Only valid if Patterns.TRACKED. 
+	 * @param instance The pattern, from 0 to Patterns.INSTANCES
+	 * @return The base 3 index of what is on the pattern's squares
+	 */
+	public int getPattern(int instance) { return patterns[instance]; }
+
+	/**
+	 * Returns the bitboard of the discs owned by a player
+	 * @param player The byte representation of the player (AG1 or AG2)
+	 * @return A bitboard with bit (r * 8 + c) set for every tile the player owns
+	 */
+	public long getDiscs(byte player) { return (player == AG1) ? ag1Discs : ag2Discs; }
+
+	/**
+	 * Returns the other player
+	 * @param player The byte representation of the player (AG1 or AG2)
+	 * @return The byte representation of the other player
+	 */
+	public static byte other(byte player) { return (player == AG1) ? AG2 : AG1; }
+
+	/**
+	 * Builds the byte[][] representation of the board. The array is a copy, so changing it does not change the state. 
+	 * @return The board, indexed by [r][c]
+	 */
 	public byte[][] getBoard() {
+		final byte[][] board = new byte[SIZE][SIZE];
+
+		for(int r = 0; r < SIZE; r++)
+			for(int c = 0; c < SIZE; c++)
+				board[r][c] = getSquare(r, c);
+
 		return board;
 	}
 	
@@ -0,0 +1,119 @@
+package com.ahfriedman.othelloai.models;
+
+import java.util.Arrays;
+
+/**
+ * Stores the information needed to take back moves made in place on a {@link State}.
+ * Each entry holds the discs that were flipped along with the counters from before the move,
+ * so that unmaking a move is just restoring them. Entries are kept in primitive arrays that
+ * are reused for the whole search, so making and unmaking moves does not allocate.
+ */
+public class UndoStack {
+
+	/**
+	 * Square stored for a pass, as no disc was placed
+	 */
+	static final byte NO_SQUARE = -1;
+
+	/**
+	 * The square the disc was placed on (r * 8 + c), or NO_SQUARE for a pass
+	 */
+	byte[] squares;
+
+	/**
+	 * The discs flipped by the move
+	 */
+	long[] flips;
+
+	/**
+	 * The player to move before the move was made
+	 */
+	byte[] players;
+
+	/**
+	 * The Zobrist hash from before the move was made
+	 */
+	long[] hashes;
+
+	/**
+	 * The tile counters from before the move was made
+	 */
+	byte[] playerTiles;
+	byte[] opponentTiles;
+
+	float[] playerTileWorth;
+	float[] opponentTileWorth;
+
+	/**
+	 * The number of entries currently on the stack
+	 */
+	int size = 0;
+
+	/**
+	 * Constructs a new undo stack.
+	 * @param capacity The number of moves it can store before it needs to grow. A game has at most 60 moves plus passes.
+	 */
+	public UndoStack(int capacity)
+	{
+		squares = new byte[capacity];
+		flips = new long[capacity];
+		players = new byte[capacity];
+		hashes = new long[capacity];
+		playerTiles = new byte[capacity];
+		opponentTiles = new byte[capacity];
+		playerTileWorth = new float[capacity];
+		opponentTileWorth = new float[capacity];
+	}
+
+	/**
+	 * Reserves the next entry on the stack, growing the arrays if needed.
+	 * @return The index of the reserved entry
+	 */
+	int push()
+	{
+		if(size == squares.length)
+			doubleCapacity();
+
+		return size++;
+	}
+
+	/**
+	 * Removes the top entry from the stack.
+	 * @return The index of the removed entry, which can still be read until the next push
+	 */
+	int pop()
+	{
+		if(size == 0)
+			throw new IllegalStateException("Tried to unmake a move with an empty undo stack");
+
+		return --size;
+	}
+
+	/**
+	 * This is used to double the capacity of this stack.
+	 */
+	private void doubleCapacity()
+	{
+		final int n = 2 * squares.length;
+
+		squares = Arrays.copyOf(squares, n);
+		flips = Arrays.copyOf(flips, n);
+		players = Arrays.copyOf(players, n);
+		hashes = Arrays.copyOf(hashes, n);
+		playerTiles = Arrays.copyOf(playerTiles, n);
+		opponentTiles = Arrays.copyOf(opponentTiles, n);
+		playerTileWorth = Arrays.copyOf(playerTileWorth, n);
+		opponentTileWorth = Arrays.copyOf(opponentTileWorth, n);
+	}
+
+	/**
+	 * Removes every entry from the stack.
+	 */
+	public void clear() { size = 0; }
+
+	/**
+	 * Used to get the number of moves currently stored.
+	 * @return The number of moves that can be unmade
+	 */
+	public int size() { return size; }
+}
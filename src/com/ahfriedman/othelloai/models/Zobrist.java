@@ -0,0 +1,80 @@
+package com.ahfriedman.othelloai.models;
+
+/**
+ * Random keys used to build the 64-bit Zobrist hash of a state. The hash of a state is the XOR
+ * of the key for every (player, square) pair on the board, along with SIDE if AG2 is the player to move.
+ * Because XOR is its own inverse, a move only has to XOR in the keys of the squares that changed.
+ * <br />
+ * The keys come from a fixed seed so that hashes are the same between runs, and can be stored on disk.
+ */
+public class Zobrist {
+
+	/**
+	 * Keys for each player and square. Indexed by [player][r * 8 + c], where player is AG1 or AG2.
+	 */
+	public static final long[][] SQUARES = new long[3][64];
+
+	/**
+	 * The XOR of the keys of every square set in each byte of a bitboard, so that a whole bitboard can be hashed 
+	 * with one lookup per row. Indexed by [player][row * 256 + the row's byte]. 
+	 */
+	private static final long[][] ROWS = new long[3][8 * 256];
+
+	/**
+	 * Key XORed into the hash when AG2 is the player to move
+	 */
+	public static final long SIDE;
+
+	/**
+	 * Seed used to generate the keys
+	 */
+	private static final long SEED = 0x5EF4A17L;
+
+	static {
+		long x = SEED;
+
+		for(int p = State.AG1; p <= State.AG2; p++)
+		{
+			for(int sq = 0; sq < 64; sq++)
+			{
+				x += 0x9E3779B97F4A7C15L;
+				SQUARES[p][sq] = mix(x);
+			}
+		}
+
+		x += 0x9E3779B97F4A7C15L;
+		SIDE = mix(x);
+
+		for(int p = State.AG1; p <= State.AG2; p++)
+			for(int row = 0; row < 8; row++)
+				for(int bits = 1; bits < 256; bits++)
+					ROWS[p][row * 256 + bits] = ROWS[p][row * 256 + (bits & (bits - 1))] ^ SQUARES[p][row * 8 + Integer.numberOfTrailingZeros(bits)];
+	}
+
+	/**
+	 * Returns the XOR of the keys of every square in a bitboard, which is the same as XORing in SQUARES for each disc, 
+	 * but without a loop over the discs
+	 * @param player The player the discs belong to (AG1 or AG2)
+	 * @param b The bitboard
+	 * @return The XOR of the keys
+	 */
+	public static long discs(byte player, long b)
+	{
+		final long[] rows = ROWS[player];
+		return rows[(int) (b & 0xFF)] ^ rows[256 + (int) ((b >>> 8) & 0xFF)] ^ rows[512 + (int) ((b >>> 16) & 0xFF)] 
+				^ rows[768 + (int) ((b >>> 24) & 0xFF)] ^ rows[1024 + (int) ((b >>> 32) & 0xFF)] ^ rows[1280 + (int) ((b >>> 40) & 0xFF)] 
+				^ rows[1536 + (int) ((b >>> 48) & 0xFF)] ^ rows[1792 + (int) (b >>> 56)];
+	}
+
+	/**
+	 * SplitMix64 finalizer, used to turn a counter into well distributed random bits.
+	 * @param z The value to mix
+	 * @return The mixed value
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
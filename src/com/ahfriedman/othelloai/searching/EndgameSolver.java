@@ -0,0 +1,367 @@
+package com.ahfriedman.othelloai.searching;
+
+import com.ahfriedman.othelloai.models.State;
+import com.ahfriedman.othelloai.utils.Consts;
+
+/**
+ * Solves the end of the game exactly, instead of searching it with the evaluation function.
+ * <br />
+ * The solver is a negamax alpha-beta search that works directly on the bitboards of the two players, so it never
+ * builds a state or evaluates one. Scores are the final disc differential for the player to move (with the empty
+ * squares going to the winner), so they run from -64 to 64. With a window of (-1, 1), the search only proves whether
+ * the game is a win, loss or draw, which cuts off far more of the tree and so can be done a few empties earlier.
+ * <br />
+ * Moves are ordered fastest-first (the move that leaves the opponent the fewest moves first), with moves into
+ * regions with an odd number of empty squares breaking ties. Close to the end, ordering costs more than it saves,
+ * so moves are only ordered by parity, and the last empty square has its own routine. Once there are enough discs
+ * on the board, the opponent's stable discs give a bound on our score, which can cut a node off before it is searched.
+ */
+public class EndgameSolver {
+
+	/**
+	 * Scores from a win/loss/draw solve
+	 */
+	public static final int WIN = 1;
+	public static final int DRAW = 0;
+	public static final int LOSS = -1;
+
+	/**
+	 * Move returned when the player to move has to pass
+	 */
+	public static final int NO_MOVE = 64;
+
+	/**
+	 * With fewer empty squares than this, moves are only ordered by parity
+	 */
+	private static final int FASTEST_FIRST_EMPTIES = 7;
+
+	/**
+	 * With at least this many empty squares, nodes check for a stability cutoff
+	 */
+	private static final int STABILITY_EMPTIES = 8;
+
+	/**
+	 * The clock is checked once every this many nodes (must be one less than a power of two)
+	 */
+	private static final long CHECK_MASK = 4095;
+
+	/**
+	 * The four quadrants of the board, used to find the regions with an odd number of empty squares.
+	 * Moving into an odd region means we are likely to get the last move there.
+	 */
+	private static final long[] QUADRANTS = new long[] {
+		0x000000000F0F0F0FL, 0x00000000F0F0F0F0L, 0x0F0F0F0F00000000L, 0xF0F0F0F000000000L
+	};
+
+	/**
+	 * The time (from System.nanoTime) the solver has to give up at
+	 */
+	private final long endAt;
+
+	/**
+	 * Set once the solver runs out of time. Every score after that is meaningless.
+	 */
+	private boolean aborted = false;
+
+	/**
+	 * The number of nodes searched
+	 */
+	private long nodes = 0;
+
+	/**
+	 * The best move and its score from the last call to solve
+	 */
+	private int bestMove = NO_MOVE;
+	private int score = 0;
+
+	/**
+	 * The moves and their ordering scores for each number of empty squares, so that nothing is allocated during the search
+	 */
+	private final int[][] moves = new int[61][64];
+	private final int[][] keys = new int[61][64];
+
+	/**
+	 * Creates a new solver.
+	 * @param endAt The time (from System.nanoTime) at which the solver should give up
+	 */
+	public EndgameSolver(long endAt)
+	{
+		this.endAt = endAt;
+	}
+
+	/**
+	 * The number of empty squares we can expect to solve exactly in the given amount of time.
+	 * Consts.ENDGAME_EMPTIES empties can be solved in a second, and each extra empty square takes
+	 * Consts.ENDGAME_GROWTH times longer.
+	 * @param t The time limit in milliseconds
+	 * @return The number of empty squares to start solving exactly at
+	 */
+	public static int exactEmpties(long t)
+	{
+		final double seconds = Math.max(t, 1) / 1000.0;
+		return Math.max(0, Consts.ENDGAME_EMPTIES + (int) Math.floor(Math.log(seconds) / Math.log(Consts.ENDGAME_GROWTH)));
+	}
+
+	/**
+	 * The number of empty squares at which we can expect to solve for a win, loss or draw in the given amount of time
+	 * @param t The time limit in milliseconds
+	 * @return The number of empty squares to start solving for a win, loss or draw at
+	 */
+	public static int wldEmpties(long t) { return exactEmpties(t) + Consts.WLD_EXTRA_EMPTIES; }
+
+	/**
+	 * Solves a state for the player to move.
+	 * @param state The state to solve
+	 * @param exact true to find the final disc differential; false to only find whether it is a win, loss or draw
+	 * @return true if the state was solved; false if we ran out of time
+	 */
+	public boolean solve(State state, boolean exact)
+	{
+		final byte player = state.getPlayer();
+		final long own = state.getDiscs(player);
+		final long opp = state.getDiscs(State.other(player));
+
+		int alpha = exact ? -64 : LOSS;
+		final int beta = exact ? 64 : WIN;
+
+		aborted = false;
+		bestMove = NO_MOVE;
+
+		final long legal = State.getMoveMask(own, opp);
+		if(legal == 0)
+		{
+			final int v = (State.getMoveMask(opp, own) == 0) ? finalScore(own, opp) : -search(opp, own, -beta, -alpha);
+			score = exact ? v : Integer.signum(v);
+			return !aborted;
+		}
+
+		//The root is always ordered fastest-first, so the best move is usually found first
+		final int empties = Long.bitCount(~(own | opp));
+		final int count = order(own, opp, legal, empties);
+
+		int best = -65;
+		for(int i = 0; i < count && alpha < beta; i++)
+		{
+			final int sq = pick(empties, i, count);
+			final long flips = State.getFlips(own, opp, sq);
+			final int v = -search(opp & ~flips, own | flips | (1L << sq), -beta, -alpha);
+
+			if(aborted)
+				return false;
+
+			if(v > best)
+			{
+				best = v;
+				bestMove = sq;
+				alpha = Math.max(alpha, v);
+			}
+		}
+
+		//Outside of the (-1, 1) window, all we know is the sign of the score
+		score = exact ? best : Integer.signum(best);
+		return true;
+	}
+
+	/**
+	 * Searches a position for the player to move.
+	 * @param own The discs of the player to move
+	 * @param opp The discs of their opponent
+	 * @param alpha The alpha value for the player to move
+	 * @param beta The beta value for the player to move
+	 * @return The score for the player to move, or 0 if we ran out of time
+	 */
+	private int search(long own, long opp, int alpha, int beta)
+	{
+		if((++nodes & CHECK_MASK) == 0 && System.nanoTime() - endAt >= 0)
+			aborted = true;
+		if(aborted)
+			return 0;
+
+		final long empty = ~(own | opp);
+		final int empties = Long.bitCount(empty);
+
+		if(empties == 0)
+			return finalScore(own, opp);
+		if(empties == 1)
+			return solveLast(own, opp, Long.numberOfTrailingZeros(empty));
+
+		//The opponent's stable discs can never become ours, so they limit how well we can do
+		if(empties >= STABILITY_EMPTIES)
+		{
+			final int upper = 64 - 2 * Long.bitCount(State.getStableDiscs(opp, own));
+			if(upper <= alpha)
+				return upper;
+			beta = Math.min(beta, upper);
+		}
+
+		final long legal = State.getMoveMask(own, opp);
+
+		//If we have no moves, we must pass, and if neither of us can move, the game is over
+		if(legal == 0)
+		{
+			if(State.getMoveMask(opp, own) == 0)
+				return finalScore(own, opp);
+			return -search(opp, own, -beta, -alpha);
+		}
+
+		int best = -65;
+
+		if(empties < FASTEST_FIRST_EMPTIES)
+		{
+			//Try the moves into odd regions first, and then the rest
+			final long odd = oddRegions(empty);
+			for(int pass = 0; pass < 2; pass++)
+			{
+				for(long m = legal & ((pass == 0) ? odd : ~odd); m != 0; m &= m - 1)
+				{
+					final int sq = Long.numberOfTrailingZeros(m);
+					final long flips = State.getFlips(own, opp, sq);
+					final int v = -search(opp & ~flips, own | flips | (1L << sq), -beta, -alpha);
+
+					if(v > best)
+					{
+						best = v;
+						if(v > alpha)
+						{
+							alpha = v;
+							if(alpha >= beta)
+								return best;
+						}
+					}
+				}
+			}
+			return best;
+		}
+
+		final int count = order(own, opp, legal, empties);
+		for(int i = 0; i < count; i++)
+		{
+			final int sq = pick(empties, i, count);
+			final long flips = State.getFlips(own, opp, sq);
+			final int v = -search(opp & ~flips, own | flips | (1L << sq), -beta, -alpha);
+
+			if(v > best)
+			{
+				best = v;
+				if(v > alpha)
+				{
+					alpha = v;
+					if(alpha >= beta)
+						return best;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Scores the position with one empty square left. Either we move there, the opponent moves there,
+	 * or neither of us can and the game ends with it empty.
+	 */
+	private int solveLast(long own, long opp, int sq)
+	{
+		final int ownCount = Long.bitCount(own);
+
+		final long flips = State.getFlips(own, opp, sq);
+		if(flips != 0)
+			return 2 * (ownCount + Long.bitCount(flips) + 1) - 64;
+
+		final long oppFlips = State.getFlips(opp, own, sq);
+		if(oppFlips != 0)
+			return 2 * (ownCount - Long.bitCount(oppFlips)) - 64;
+
+		return finalScore(own, opp);
+	}
+
+	/**
+	 * Scores a finished game as the disc differential for the player to move, with the empty squares going to the winner.
+	 */
+	private static int finalScore(long own, long opp)
+	{
+		final int ownCount = Long.bitCount(own);
+		final int oppCount = Long.bitCount(opp);
+		final int diff = ownCount - oppCount;
+
+		if(diff > 0)
+			return diff + (64 - ownCount - oppCount);
+		if(diff < 0)
+			return diff - (64 - ownCount - oppCount);
+		return 0;
+	}
+
+	/**
+	 * Finds the quadrants with an odd number of empty squares
+	 */
+	private static long oddRegions(long empty)
+	{
+		long odd = 0;
+		for(long q : QUADRANTS)
+			if((Long.bitCount(empty & q) & 1) != 0)
+				odd |= q;
+		return odd;
+	}
+
+	/**
+	 * Fills in the moves and their fastest-first ordering keys for a node. Lower keys are searched first.
+	 * @return The number of moves
+	 */
+	private int order(long own, long opp, long legal, int empties)
+	{
+		final int[] m = moves[empties];
+		final int[] k = keys[empties];
+		final long odd = oddRegions(~(own | opp));
+
+		int count = 0;
+		for(long l = legal; l != 0; l &= l - 1)
+		{
+			final int sq = Long.numberOfTrailingZeros(l);
+			final long flips = State.getFlips(own, opp, sq);
+			final long placed = 1L << sq;
+
+			//The number of replies the opponent would have, with moves into odd regions breaking ties
+			m[count] = sq;
+			k[count] = 2 * Long.bitCount(State.getMoveMask(opp & ~flips, own | flips | placed)) + (((odd & placed) != 0) ? 0 : 1);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Selection sort: swaps the move with the lowest key from index i onwards into index i, and returns it.
+	 */
+	private int pick(int empties, int i, int count)
+	{
+		final int[] m = moves[empties];
+		final int[] k = keys[empties];
+
+		int best = i;
+		for(int j = i + 1; j < count; j++)
+			if(k[j] < k[best])
+				best = j;
+
+		final int sq = m[best];
+		m[best] = m[i];
+		k[best] = k[i];
+		m[i] = sq;
+		return sq;
+	}
+
+	/**
+	 * Returns the best move found by the last call to solve
+	 * @return The square of the best move (r * 8 + c), or NO_MOVE if the player had to pass
+	 */
+	public int getBestMove() { return bestMove; }
+
+	/**
+	 * Returns the score from the last call to solve. For an exact solve, this is the final disc differential for the
+	 * player to move. Otherwise, it is WIN, LOSS or DRAW.
+	 * @return The score of the best move
+	 */
+	public int getScore() { return score; }
+
+	/**
+	 * Returns the number of nodes searched
+	 * @return The number of nodes searched
+	 */
+	public long getNodes() { return nodes; }
+}
@@ -0,0 +1,142 @@
+package com.ahfriedman.othelloai.searching;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.ahfriedman.othelloai.agents.GeneticNNAgent;
+import com.ahfriedman.othelloai.evaluation.CachedEvaluator;
+import com.ahfriedman.othelloai.evaluation.Evaluator;
+import com.ahfriedman.othelloai.evaluation.HeuristicEvaluator;
+import com.ahfriedman.othelloai.evaluation.MobilityEvaluator;
+import com.ahfriedman.othelloai.evaluation.NeuralNetworkEvaluator;
+import com.ahfriedman.othelloai.evaluation.PatternEvaluator;
+import com.ahfriedman.othelloai.models.Game;
+import com.ahfriedman.othelloai.models.State;
+import com.ahfriedman.othelloai.utils.Consts;
+
+/**
+ * Compares the throughput of the evaluators. Each evaluator searches the same set of positions with one thread, and
+ * this prints the nodes per second and average depth reached, along with the hit rate of cached evaluators. The searches
+ * are then run again with the evaluator counting its features, and this prints how often each feature was calculated
+ * and what it cost.
+ * <br />
+ * The pattern evaluator is only included if there is a weights file, and the network evaluator if a network file is given.
+ * <br />
+ * Usage: EvaluatorBenchmark [milliseconds per search] [positions] [network file]
+ */
+public class EvaluatorBenchmark {
+
+	public static void main(String... args) throws ClassNotFoundException, IOException
+	{
+		final long t = (args.length > 0) ? Long.parseLong(args[0]) : Consts.timelimit;
+		final int count = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+
+		final List<String> names = new ArrayList<String>();
+		final List<Evaluator> evaluators = new ArrayList<Evaluator>();
+		names.add("heuristic");
+		evaluators.add(new HeuristicEvaluator());
+		names.add("cached");
+		evaluators.add(new CachedEvaluator(new HeuristicEvaluator(), Consts.EVAL_CACHE_MEGABYTES));
+		names.add("mobility");
+		evaluators.add(new MobilityEvaluator());
+		if(PatternEvaluator.DEFAULT != null)
+		{
+			names.add("patterns");
+			evaluators.add(PatternEvaluator.DEFAULT);
+		}
+		if(args.length > 2)
+		{
+			names.add("network");
+			evaluators.add(new NeuralNetworkEvaluator(GeneticNNAgent.loadFromFile(args[2])));
+		}
+
+		final State[] positions = positions(count);
+		final int threads = Consts.SEARCH_THREADS;
+		Consts.SEARCH_THREADS = 1;
+
+		//Warm up the JIT so the first evaluator is not penalised
+		for(Evaluator e : evaluators)
+			IterativeSearch.IterativeABSearch(positions[0], t, Consts.SEARCH_ALGORITHM, e);
+
+		//Start the caches cold, so they only count hits from the searches being measured
+		for(Evaluator e : evaluators)
+			if(e instanceof CachedEvaluator)
+				((CachedEvaluator) e).getCache().clear();
+
+		System.out.println("evaluator\tnodes/s\tdepth");
+		for(int i = 0; i < evaluators.size(); i++)
+		{
+			final SearchStats total = search(positions, t, evaluators.get(i));
+			System.out.printf("%s\t%.0f\t%.1f", names.get(i), total.nodes * 1000.0 / Math.max(1, total.elapsedMillis), (double) total.depth / positions.length);
+
+			if(evaluators.get(i) instanceof CachedEvaluator)
+				System.out.printf("\t(%.1f%% cache hits)", 100 * ((CachedEvaluator) evaluators.get(i)).getCache().hitRate());
+			System.out.println();
+		}
+
+		for(int i = 0; i < evaluators.size(); i++)
+		{
+			final Evaluator e = evaluators.get(i);
+			e.setCounting(true);
+			search(positions, t, e);
+
+			System.out.println();
+			System.out.println(names.get(i) + ":");
+			System.out.print(e.getCounters());
+			e.setCounting(false);
+		}
+
+		Consts.SEARCH_THREADS = threads;
+	}
+
+	/**
+	 * Searches every position with an evaluator, starting each search cold
+	 * @return The total nodes, time and depth of the searches
+	 */
+	private static SearchStats search(State[] positions, long t, Evaluator evaluator)
+	{
+		final SearchStats total = new SearchStats();
+
+		for(State s : positions)
+		{
+			IterativeSearch.clearTable();
+			IterativeSearch.IterativeABSearch(s, t, Consts.SEARCH_ALGORITHM, evaluator);
+
+			final SearchStats stats = IterativeSearch.getStats();
+			total.nodes += stats.totalNodes();
+			total.elapsedMillis += stats.elapsedMillis;
+			total.depth += stats.depth;
+		}
+
+		return total;
+	}
+
+	/**
+	 * Creates a reproducible set of midgame positions by playing random moves from the initial state.
+	 * @param count The number of positions to create
+	 * @return The positions
+	 */
+	private static State[] positions(int count)
+	{
+		final Random random = new Random(count);
+		final State[] positions = new State[count];
+
+		for(int i = 0; i < count; i++)
+		{
+			State s = new State();
+			final int plies = 10 + random.nextInt(30);
+
+			for(int p = 0; p < plies && !Game.isTerminal(s); p++)
+			{
+				final List<byte[]> moves = Game.actions(s);
+				s = moves.isEmpty() ? Game.pass(s) : Game.result(s, moves.get(random.nextInt(moves.size())));
+			}
+
+			positions[i] = s;
+		}
+
+		return positions;
+	}
+}
@@ -1,11 +1,21 @@
 package com.ahfriedman.othelloai.searching;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.ahfriedman.othelloai.evaluation.Evaluator;
 import com.ahfriedman.othelloai.models.Game;
 import com.ahfriedman.othelloai.models.State;
-import com.ahfriedman.othelloai.utils.AMaxPQ;
-import com.ahfriedman.othelloai.utils.AMinPQ;
-import com.ahfriedman.othelloai.utils.APQ;
+import com.ahfriedman.othelloai.models.UndoStack;
 import com.ahfriedman.othelloai.utils.Consts;
+import com.ahfriedman.othelloai.utils.MoveBuffer;
 
 /**
  * This class is responsible for our iterative A-B minmax search.
@@ -64,12 +74,183 @@ public class IterativeSearch {
 	 */
 	
 	/**
-	 * This variable is used to track when we should end the iterative deepening search based on the time.
-	 * While we could pass this recursively, making it a global variable means that we use less memory, and, hence, 
-	 * probably run faster.
+	 * The deepest the search can ever go. A game has at most 60 moves, and every move can be followed by at most one pass. 
+	 */
+	private static final int MAX_PLY = 128; 
+
+	/**
+	 * The depth the first iteration searches to
+	 */
+	private static final int START_DEPTH = 5; 
+
+	/**
+	 * The transposition table. This is kept for the whole game so that later searches start with 
+	 * what earlier searches found. It is shared by every search thread. 
+	 */
+	private static final TranspositionTable TABLE = new TranspositionTable(Consts.TT_MEGABYTES);
+
+	/**
+	 * Scores in the table are for the player searching, from the evaluator they searched with, so the keys are 
+	 * salted with which player is searching, and which evaluator they use. This way, two agents sharing 
+	 * the table (such as in an InternalGame) can never read each other's scores. 
+	 */
+	private static final long ROOT_AG2_KEY = 0x6A09E667F3BCC909L;
+	private static final long EVALUATOR_KEY = 0xBB67AE8584CAA73BL;
+
+	/**
+	 * Stages of move picking. The move from the table and the killer moves are tried before the rest of the moves 
+	 * are scored at all, so if one of them causes a cutoff, we never pay for ordering the other moves. 
+	 */
+	private static final int STAGE_HASH = 0; 
+	private static final int STAGE_KILLER_1 = 1; 
+	private static final int STAGE_KILLER_2 = 2; 
+	private static final int STAGE_GENERATE = 3; 
+	private static final int STAGE_REST = 4; 
+
+	/**
+	 * The searcher used by each thread that calls IterativeABSearch. Searchers keep their killers and history 
+	 * between moves, and are not safe to share, so each calling thread gets its own. 
+	 */
+	private static final ThreadLocal<IterativeSearch> MAIN = ThreadLocal.withInitial(IterativeSearch::new);
+
+	/**
+	 * The searcher used to ponder on the opponent's time, along with the thread that runs it
+	 */
+	private static final IterativeSearch PONDERER = new IterativeSearch();
+	private static ExecutorService PONDER_POOL = null; 
+	private static Future<?> PONDER_FUTURE = null; 
+
+	/**
+	 * Helper searchers for Lazy SMP, along with the threads that run them. These are kept between moves, 
+	 * and only one search at a time can use them. 
+	 */
+	private static final Object HELPER_LOCK = new Object();
+	private static IterativeSearch[] HELPERS = new IterativeSearch[0];
+	private static ExecutorService HELPER_POOL = null; 
+	private static Future<?>[] HELPER_FUTURES = new Future<?>[0];
+
+	/**
+	 * The pool that runs the parallel search. This is kept between searches, and replaced if the number of threads changes.
+	 */
+	private static ForkJoinPool SPLIT_POOL = null;
+
+	/**
+	 * This variable is used to track when we should end the iterative deepening search based on the time (from System.nanoTime).
+	 * It is volatile so that the main search can stop its helpers by setting it to the current time. 
+	 */
+	private volatile long endAt = 0; 
+
+	/**
+	 * Reading the clock at every node costs more than the node itself near the leaves, so it is only read once every 
+	 * Consts.NODES_PER_TIME_CHECK nodes. Once the search has run out of time, aborted stays set until the next search. 
+	 */
+	private int untilCheck = 1; 
+	private boolean aborted = false; 
+
+	/**
+	 * The undo stack used to walk the search tree. The search makes and unmakes moves on a single state 
+	 * instead of cloning a state for every child. 
+	 */
+	private final UndoStack undo = new UndoStack(MAX_PLY);
+
+	/**
+	 * One move buffer for each ply of the search. The buffer for a node is the one at its ply (undo.size()), 
+	 * so its children always use a different buffer, and nothing has to be allocated to order moves. 
+	 */
+	private final MoveBuffer[] buffers = new MoveBuffer[MAX_PLY];
+
+	/**
+	 * The salt for our keys in the table (see ROOT_AG2_KEY)
+	 */
+	private long searchKey = 0; 
+
+	/**
+	 * The player we are searching for. The evaluation is always for this player, so the PVS search uses it 
+	 * to tell which way round the evaluation is. 
+	 */
+	private byte rootPlayer = State.AG1; 
+
+	/**
+	 * The evaluation function for the current search
+	 */
+	private Evaluator evaluator = Evaluator.getDefault();
+
+	/**
+	 * The current move picking stage, legal moves, moves already handed out, and move from the table for each ply
+	 */
+	private final int[] stage = new int[MAX_PLY];
+	private final long[] legal = new long[MAX_PLY];
+	private final long[] picked = new long[MAX_PLY];
+	private final int[] hashMoves = new int[MAX_PLY];
+
+	/**
+	 * The two most recent moves that caused a cutoff at each ply. Positions at the same ply are usually similar, 
+	 * so a move that refuted one of them often refutes the others. 
+	 */
+	private final int[][] killers = new int[MAX_PLY][2];
+
+	/**
+	 * History heuristic: how much each move (by player and square) has caused cutoffs, weighted by depth
+	 */
+	private final int[][] history = new int[3][64];
+
+	/**
+	 * Counters for the most recent search
+	 */
+	private final SearchStats stats = new SearchStats();
+
+	/**
+	 * The moves at the root in the order they will be searched, along with the score each got the last time it was searched. 
+	 * Keeping these between iterations lets the root be ordered by the previous iteration, and lets an iteration that runs 
+	 * out of time still use the moves it finished. 
+	 */
+	private final int[] rootMoves = new int[64];
+	private final float[] rootScores = new float[64];
+	private int rootCount = 0; 
+
+	/**
+	 * Set if the current iteration cut any line off before the end of the game. If an iteration finishes without 
+	 * setting this, the whole tree has been searched, and searching deeper would only find the same result. 
 	 */
-	private static long END_AT = 0; 
+	private boolean depthLimited = false; 
 
+	/**
+	 * Whether the search reads and writes the transposition table. The parallel search turns this off, as results
+	 * from the table depend on what other threads have searched, which would make its results differ between runs.
+	 */
+	private boolean useTable = true;
+
+	/**
+	 * The parallel search task this searcher is working for, or null. If the task is cancelled, the search stops.
+	 */
+	private SplitTask task = null;
+
+	/**
+	 * Creates a new searcher. Searchers are only created by IterativeSearch itself, one per search thread. 
+	 */
+	private IterativeSearch()
+	{
+		for(int i = 0; i < MAX_PLY; i++)
+			buffers[i] = new MoveBuffer();
+	}
+
+	
+	/**
+	 * Clears the transposition table. Results stay valid between games, so this is only needed to free up the table. 
+	 */
+	public static void clearTable() { TABLE.clear(); }
+	
+	/**
+	 * Returns the counters from the most recent search made by the calling thread
+	 * @return The counters from the most recent search
+	 */
+	public static SearchStats getStats() { return MAIN.get().stats; }
+	
+	/**
+	 * Returns the counters from the most recent time we pondered
+	 * @return The counters from the most recent ponder
+	 */
+	public static SearchStats getPonderStats() { return PONDERER.stats; }
 	
 	public static byte[] IterativeABSearch(State state)
 	{
@@ -83,191 +264,1412 @@ public class IterativeSearch {
 	 */
 	public static byte[] IterativeABSearch(State state, long t)
 	{
-		//Get the current time in milliseconds so that way we know when to end our search 
-		final long pre = System.currentTimeMillis(); 
-		//Set end at to be the current time, plus a time limit, minus a margin for safety 
-		END_AT = pre + (t - 150);//(Consts.timelimit - 150); //TODO: DO BETTER PREEMPT!
+		return IterativeABSearch(state, t, Consts.SEARCH_ALGORITHM);
+	}
+	
+	/**
+	 * Searches for the best move w/ an iterative deepening search using the given algorithm. If null, game is over or we must pass. 
+	 * <br />
+	 * If Consts.SEARCH_THREADS is more than 1, this uses Lazy SMP: helper threads run the same iterative deepening 
+	 * search on the same root, sharing the transposition table. Half of them start a ply deeper than the main search 
+	 * so that the threads spread out over different depths. The helpers fill the table with results that the main 
+	 * search then finds for free, but only the main search's result is used. 
+	 * @param state The state to start searching from. 
+	 * @param t The time limit in milliseconds
+	 * @param algorithm The algorithm used to search each iteration
+	 * @return A byte[] that represents the best action to make. 
+	 */
+	public static byte[] IterativeABSearch(State state, long t, SearchAlgorithm algorithm)
+	{
+		return IterativeABSearch(state, t, algorithm, Evaluator.getDefault());
+	}
+	
+	/**
+	 * Searches for the best move w/ an iterative deepening search using the given algorithm and evaluation function. 
+	 * If null, game is over or we must pass. 
+	 * @param state The state to start searching from. 
+	 * @param t The time limit in milliseconds
+	 * @param algorithm The algorithm used to search each iteration
+	 * @param evaluator The evaluation function, which evaluates states for the player to move at the root
+	 * @return A byte[] that represents the best action to make. 
+	 */
+	public static byte[] IterativeABSearch(State state, long t, SearchAlgorithm algorithm, Evaluator evaluator)
+	{
+		return IterativeABSearch(state, t, algorithm, evaluator, 0);
+	}
+	
+	/**
+	 * Searches for the best move w/ an iterative deepening search using the given algorithm and evaluation function, 
+	 * with extra time saved from earlier moves (such as book moves). If null, game is over or we must pass. 
+	 * @param state The state to start searching from. 
+	 * @param t The time limit in milliseconds
+	 * @param algorithm The algorithm used to search each iteration
+	 * @param evaluator The evaluation function, which evaluates states for the player to move at the root
+	 * @param bonus Extra time in milliseconds the search may aim to use, up to the time limit (see TimeManager)
+	 * @return A byte[] that represents the best action to make. 
+	 */
+	public static byte[] IterativeABSearch(State state, long t, SearchAlgorithm algorithm, Evaluator evaluator, long bonus)
+	{
+		//Work out how long we have, so that way we know when to end our search 
+		final TimeManager time = new TimeManager(state, t, bonus);
+		final long endAt = time.getDeadline();
 		
-		//Variables for tracking the best possible move and current depth. If we return null, we know we must pass 
-		Pair ans = null;
-		int depth = 5; 
+		final IterativeSearch main = MAIN.get();
+		main.endAt = endAt; 
+		main.evaluator = evaluator; 
 		
-		//While we are still in our time limit
-		while(System.currentTimeMillis() < END_AT)
+		//If we only have one move (or none, and must pass), there is nothing to search
+		final long moves = state.getMoveMask(state.getPlayer());
+		if(Long.bitCount(moves) <= 1)
 		{
-			//Run the search based on our current state
-			final Pair curr = MaxValue(state, Integer.MIN_VALUE, Integer.MAX_VALUE, depth);
-			if(curr != null)
-				ans = curr; 
-			//Increment depth 
-			depth++;  //TODO: WHICH VERSION	
+			main.stats.reset();
+			main.stats.targetMillis = time.targetMillis();
+			main.stats.stoppedEarly = true; 
+			return (moves == 0) ? null : State.squareToAction(Long.numberOfTrailingZeros(moves));
+		}
+		
+		//Age the table so that entries from previous moves are replaced first
+		TABLE.newSearch();
+		
+		//Close to the end of the game, try to solve it instead of searching it with the evaluation function. 
+		//The solver gets half of our time, so that if it cannot finish, we still have time to search normally. 
+		final int empties = 64 - state.getPlayerTiles() - state.getOpponentTiles(); 
+		final boolean exact = empties <= EndgameSolver.exactEmpties(t);
+		EndgameSolver solver = null; 
+		boolean solved = false; 
+		if(empties <= EndgameSolver.wldEmpties(t) && state.hasMoves(state.getPlayer()))
+		{
+			solver = new EndgameSolver(time.getMidpoint());
+			solved = solver.solve(state, exact);
+			
+			//If we are only solving for a win, and we are lost, search normally instead so that the opponent has the most chances to go wrong
+			if(solved && (exact || solver.getScore() != EndgameSolver.LOSS))
+			{
+				main.stats.reset();
+				main.stats.elapsedMillis = time.elapsedMillis(); 
+				main.stats.targetMillis = time.targetMillis();
+				main.stats.stoppedEarly = true; 
+				recordEndgame(main.stats, solver, empties, exact, solved);
+				return State.squareToAction(solver.getBestMove());
+			}
+		}
+		
+		final Pair ans; 
+		if(Consts.SEARCH_THREADS <= 1)
+		{
+			//The search walks its own copy of the state so that an aborted search can never leave the caller's state changed
+			ans = main.iterate(state.clone(), algorithm, START_DEPTH, time);
 		}
+		else
+		{
+			synchronized(HELPER_LOCK)
+			{
+				startHelpers(state, endAt, algorithm, evaluator);
+				ans = main.iterate(state.clone(), algorithm, START_DEPTH, time);
+				main.stats.helperNodes = stopHelpers();
+			}
+		}
+		main.stats.threads = Math.max(1, Consts.SEARCH_THREADS);
+		main.stats.elapsedMillis = time.elapsedMillis(); 
+		main.stats.targetMillis = time.targetMillis(); 
+		main.stats.branchingFactor = time.getBranchingFactor();
+		if(solver != null)
+			recordEndgame(main.stats, solver, empties, exact, solved);
 		
-//		System.out.println(ans.utility + " (" + (System.currentTimeMillis() - pre) + " ms; depth: " + depth + ") ");
+//		System.out.println(ans.utility + " (" + time.elapsedMillis() + " ms; depth: " + main.stats.depth + ") ");
 		
 		//Return the action. 
 		return ans.action;
 	}
 	
 	/**
-	 * Processes a max node in our search. 
-	 * @param state The current state. 
-	 * @param alpha The alpha value in minmax search. 
-	 * @param beta The beta value in minmax search. 
-	 * @param depth The max search depth
-	 * @return A pair that stores the best action along with its utility 
+	 * Copies the result of an endgame solve into a search's counters
 	 */
-	private static final Pair MaxValue(State state, float alpha, float beta, int depth)
+	private static void recordEndgame(SearchStats stats, EndgameSolver solver, int empties, boolean exact, boolean solved)
 	{
-		//If we have exceeded our runtime, then return null. 
-		if(System.currentTimeMillis() >= END_AT) return null;
+		stats.endgameEmpties = empties; 
+		stats.endgameExact = exact; 
+		stats.endgameSolved = solved; 
+		stats.endgameNodes = solver.getNodes();
+	}
+	
+	/**
+	 * Starts searching the opponent's replies in the background, while we wait for their move. 
+	 * <br />
+	 * The search is run from our point of view, the same way our next search will be, so everything it puts in the 
+	 * transposition table can be used by that search. Whatever reply the opponent makes, its subtree has been searched 
+	 * for as long as they took to move, and our next search picks up from there through the table. 
+	 * @param state The state after our move, with the opponent to move
+	 * @param algorithm The algorithm our next search will use
+	 * @param evaluator The evaluation function our next search will use
+	 */
+	public static synchronized void startPondering(State state, SearchAlgorithm algorithm, Evaluator evaluator)
+	{
+		stopPondering();
 		
-		//If the state is terminal, then return the utility of the state and null for the action. 
-		if(Game.isTerminal(state) || depth == 0) return new Pair(Game.utility(state), null);
+		if(Game.isTerminal(state))
+			return; 
 		
-		//Variables to store the min move utility and the corresponding move. 
-		float v = Integer.MIN_VALUE; 
-		byte[] move = null; 
+		if(PONDER_POOL == null)
+		{
+			PONDER_POOL = Executors.newSingleThreadExecutor(r -> {
+				final Thread thread = new Thread(r, "search-ponder");
+				thread.setDaemon(true);
+				return thread; 
+			});
+		}
 		
-		final APQ<EvaluatedAction> actions = new AMaxPQ<EvaluatedAction>(10);
-		state.getMoves(actions, state.getPlayer());
+		final State copy = state.clone();
+		
+		//Pondering has no time limit. It runs until it is stopped. 
+		PONDERER.endAt = System.nanoTime() + Long.MAX_VALUE / 2; 
+		PONDERER.evaluator = evaluator; 
+		TABLE.newSearch();
+		PONDER_FUTURE = PONDER_POOL.submit(() -> PONDERER.ponder(copy, algorithm));
+	}
+	
+	/**
+	 * Stops pondering, and waits for the ponder search to finish so that it can never run at the same time as our own search. 
+	 * Does nothing if we are not pondering. 
+	 */
+	public static synchronized void stopPondering()
+	{
+		if(PONDER_FUTURE == null)
+			return; 
 		
+		PONDERER.endAt = System.nanoTime();
+		try 
+		{
+			PONDER_FUTURE.get();
+		} 
+		catch (InterruptedException | ExecutionException e) 
+		{
+			e.printStackTrace();
+		}
+		PONDER_FUTURE = null; 
+	}
+	
+	/**
+	 * Runs the iterative deepening loop for pondering, until endAt or until the tree is solved. 
+	 * The opponent is to move at the root, so the root is a min node. 
+	 * @param state The state after our move. This is used as the search's working state, so it should be a copy. 
+	 * @param algorithm The algorithm used to search each iteration
+	 */
+	private void ponder(State state, SearchAlgorithm algorithm)
+	{
+		undo.clear();
+		aborted = false; 
+		untilCheck = 1; 
 		
+		//Search as the player who moves after the opponent, so that the keys and scores match our next search
+		rootPlayer = State.other(state.getPlayer());
+		searchKey = salt(rootPlayer, evaluator);
+		stats.reset();
 		
-		//Get a list of our possible actions from the state
-//		final List<byte[]> actions = Game.actions(state);
+		final int empties = 64 - state.getPlayerTiles() - state.getOpponentTiles(); 
 		
-		//If our list is empty, we must pass. 
-		if(actions.isEmpty())
+		for(int depth = START_DEPTH; ; depth++)
 		{
-			final Pair result = MinValue(Game.pass(state), alpha, beta, depth - 1);
+			depthLimited = false; 
 			
-			//If our result is null, we hit a time limit, so continue to return null.
-			//This ensures we explore a tree of an equal depth. 
-			if(result == null) return null;
+			final Pair result = (algorithm == SearchAlgorithm.PVS) ? 
+					PVS(state, Integer.MIN_VALUE, Integer.MAX_VALUE, depth) : 
+					MinValue(state, Integer.MIN_VALUE, Integer.MAX_VALUE, depth);
 			
-			return new Pair(result.utility, null); //Essentially passing
+			if(result == null)
+				break; 
+			
+			stats.depth = depth; 
+			
+			if(!depthLimited || depth >= 2 * empties)
+				break; 
 		}
+	}
+	
+	/**
+	 * Works out the salt for our keys in the table (see ROOT_AG2_KEY)
+	 * @param rootPlayer The player the search is for
+	 * @param evaluator The evaluation function the search uses
+	 * @return The salt to XOR into every key
+	 */
+	private static long salt(byte rootPlayer, Evaluator evaluator)
+	{
+		return ((rootPlayer == State.AG2) ? ROOT_AG2_KEY : 0) ^ (System.identityHashCode(evaluator) * EVALUATOR_KEY);
+	}
+	
+	/**
+	 * Starts the Lazy SMP helpers searching a copy of the state. The helper threads are created the first time they 
+	 * are needed, and reused after that. 
+	 */
+	private static void startHelpers(State state, long endAt, SearchAlgorithm algorithm, Evaluator evaluator)
+	{
+		final int count = Consts.SEARCH_THREADS - 1; 
 		
-		//Otherwise, check our list of actions to determine which is the best. 
-//		for(byte[] a : actions)
-//		for(EvaluatedAction a : actions)
-		while(!actions.isEmpty())
+		if(HELPERS.length != count)
 		{
-			final EvaluatedAction a = actions.pop();
-			//Run the MinVal part of the search
-			final Pair result = MinValue(a.state, alpha, beta, depth - 1);
+			if(HELPER_POOL != null)
+				HELPER_POOL.shutdown();
 			
-			//If our result is null, we hit a time limit, so continue to return null.
-			//This ensures we explore a tree of an equal depth. 
-			if(result == null) return null;
+			HELPERS = new IterativeSearch[count];
+			for(int i = 0; i < count; i++)
+				HELPERS[i] = new IterativeSearch();
 			
-			//If our results utility is better then the current,  update the current.
-			if(move == null || result.utility > v)
+			HELPER_POOL = Executors.newFixedThreadPool(count, r -> {
+				final Thread thread = new Thread(r, "search-helper");
+				thread.setDaemon(true);
+				return thread; 
+			});
+		}
+		
+		HELPER_FUTURES = new Future<?>[count];
+		for(int i = 0; i < count; i++)
+		{
+			final IterativeSearch helper = HELPERS[i];
+			final State copy = state.clone();
+			final int start = START_DEPTH + ((i + 1) & 1);
+			
+			helper.endAt = endAt; 
+			helper.evaluator = evaluator; 
+			HELPER_FUTURES[i] = HELPER_POOL.submit(() -> helper.iterate(copy, algorithm, start, null));
+		}
+	}
+	
+	/**
+	 * Stops the Lazy SMP helpers, and waits for them to finish so that they are ready for the next search. 
+	 * @return The number of nodes the helpers searched
+	 */
+	private static long stopHelpers()
+	{
+		long nodes = 0; 
+		
+		final long now = System.nanoTime();
+		for(IterativeSearch helper : HELPERS)
+			helper.endAt = now; 
+		
+		for(int i = 0; i < HELPERS.length; i++)
+		{
+			try 
 			{
-				v = result.utility; 
-				move = a.action; 
-				
-				alpha = Math.max(alpha, v);
+				HELPER_FUTURES[i].get();
+			} 
+			catch (InterruptedException | ExecutionException e) 
+			{
+				e.printStackTrace();
 			}
-			
-			if(v >= beta)
-				return new Pair(v, move);
+			nodes += HELPERS[i].stats.nodes; 
 		}
 		
-		return new Pair(v, move);
+		return nodes; 
 	}
 	
 	/**
-	 * Processes a min node in our search. 
-	 * @param state The current state. 
-	 * @param alpha The alpha value in minmax search. 
-	 * @param beta The beta value in minmax search. 
-	 * @param depth The max search depth
-	 * @return A pair that stores the best action along with its utility 
+	 * Searches a state to a fixed depth with Young Brothers Wait parallel alpha-beta, using Consts.SEARCH_THREADS threads. 
+	 * @param state The state to search
+	 * @param depth The depth to search to
+	 * @return A byte[] that represents the best action to make, or null if we must pass
 	 */
-	private static final Pair MinValue(State state, float alpha, float beta, int depth)
+	public static byte[] ParallelABSearch(State state, int depth)
 	{
-		//If we exceed our time limit, return null
-		if(System.currentTimeMillis() >= END_AT) return null;
+		return ParallelABSearch(state, depth, Consts.SEARCH_THREADS);
+	}
+	
+	/**
+	 * Searches a state to a fixed depth with Young Brothers Wait parallel alpha-beta on a ForkJoinPool. 
+	 * <br />
+	 * At each node, the first move is searched on its own, as in MaxValue and MinValue. Once it has given us a bound, 
+	 * the rest of the moves (the younger brothers) are forked as tasks that idle threads can steal, and if one of them 
+	 * causes a cutoff, the others are cancelled. Below Consts.SPLIT_DEPTH, a task just runs MaxValue or MinValue. 
+	 * <br />
+	 * Unlike the Lazy SMP search, this is meant for analysis, and gives the same move and score no matter how many 
+	 * threads are used or how the work is stolen: the transposition table is not used, every younger brother 
+	 * is searched with the window from its eldest brother, and every result is clamped to the window it was searched with 
+	 * (so it only depends on the position and window, not on the order the tree was searched in). 
+	 * @param state The state to search
+	 * @param depth The depth to search to
+	 * @param threads The number of threads to search with
+	 * @return A byte[] that represents the best action to make, or null if we must pass
+	 */
+	public static byte[] ParallelABSearch(State state, int depth, int threads)
+	{
+		return ParallelABSearch(state, depth, threads, Evaluator.getDefault());
+	}
+	
+	/**
+	 * Searches a state to a fixed depth with Young Brothers Wait parallel alpha-beta, using the given evaluation function 
+	 * (see ParallelABSearch(State, int, int)). 
+	 * @param state The state to search
+	 * @param depth The depth to search to
+	 * @param threads The number of threads to search with
+	 * @param evaluator The evaluation function, which evaluates states for the player to move at the root
+	 * @return A byte[] that represents the best action to make, or null if we must pass
+	 */
+	public static byte[] ParallelABSearch(State state, int depth, int threads, Evaluator evaluator)
+	{
+		final long pre = System.currentTimeMillis(); 
 		
-		//If the state is terminal, then return the utility of the state and null for the action. 
-		if(Game.isTerminal(state) || depth == 0) return new Pair(Game.utility(state), null);
+		final SplitTask root = new SplitTask(state.clone(), depth, evaluator);
+		splitPool(threads).invoke(root);
 		
-		//Get a list of our possible actions from the state
-		//final List<byte[]> actions = Game.actions(state);
+		final IterativeSearch main = MAIN.get();
+		main.stats.reset();
+		main.stats.nodes = root.nodes.sum();
+		main.stats.depth = depth; 
+		main.stats.threads = Math.max(1, threads);
+		main.stats.elapsedMillis = System.currentTimeMillis() - pre; 
 		
-		final APQ<EvaluatedAction> actions = new AMinPQ<EvaluatedAction>(10);
-		state.getMoves(actions, state.getPlayer());
+		return (root.bestMove == TranspositionTable.NO_MOVE) ? null : State.squareToAction(root.bestMove);
+	}
+	
+	/**
+	 * Returns the pool used by the parallel search, creating it the first time it is needed or if the number of threads changed. 
+	 */
+	private static synchronized ForkJoinPool splitPool(int threads)
+	{
+		threads = Math.max(1, threads);
 		
-		//If our list is empty, we must pass. 
-		if(actions.isEmpty())
+		if(SPLIT_POOL == null || SPLIT_POOL.getParallelism() != threads)
 		{
-			final Pair result = MaxValue(Game.pass(state), alpha, beta, depth - 1);
-			
-			//If our result is null, we hit a time limit, so continue to return null.
-			//This ensures we explore a tree of an equal depth. 
-			if(result == null) return null;
-			
-			return new Pair(result.utility, null); //Essentially passing
+			if(SPLIT_POOL != null)
+				SPLIT_POOL.shutdown();
+			SPLIT_POOL = new ForkJoinPool(threads);
 		}
 		
-		//Variables to store the max move utility and the corresponding move. 
-		float v = Integer.MAX_VALUE;
-		byte[] move = null; 
+		return SPLIT_POOL; 
+	}
+	
+	/**
+	 * Runs the iterative deepening loop on a state until endAt, or until the time manager decides the next iteration 
+	 * is not worth starting. 
+	 * @param state The state to search. This is used as the search's working state, so it should be a copy. 
+	 * @param algorithm The algorithm used to search each iteration
+	 * @param depth The depth of the first iteration
+	 * @param time The time manager for the search, or null to keep going until endAt (such as for Lazy SMP helpers)
+	 * @return The result of the deepest completed iteration
+	 */
+	private Pair iterate(State state, SearchAlgorithm algorithm, int depth, TimeManager time)
+	{
+		undo.clear();
+		aborted = false; 
+		untilCheck = 1; 
 		
+		//Salt our keys for who is searching, and how
+		rootPlayer = state.getPlayer(); 
+		searchKey = salt(rootPlayer, evaluator);
 		
-//		Otherwise, check our list of actions to determine which is the best. 
-//		for(byte[] a : actions)
-		while(!actions.isEmpty())
+		//Killers are for positions at the same ply, which are different positions now that the game has moved on. 
+		//History is still useful, but is halved so that it follows the game. 
+		for(int i = 0; i < MAX_PLY; i++)
+			killers[i][0] = killers[i][1] = TranspositionTable.NO_MOVE; 
+		for(int p = State.AG1; p <= State.AG2; p++)
+			for(int sq = 0; sq < 64; sq++)
+				history[p][sq] >>= 1; 
+		stats.reset();
+		initRoot(state);
+		
+		//Variables for tracking the best possible move. If we return null, we know we must pass 
+		Pair ans = null;
+		
+		final int empties = 64 - state.getPlayerTiles() - state.getOpponentTiles(); 
+		
+		//Keep deepening until we run out of time, or there is no point going deeper
+		while(true)
 		{
-			final EvaluatedAction a = actions.pop();
-			//Run the MinVal part of the search
-			final Pair result = MaxValue(a.state, alpha, beta, depth - 1);
+			final long iterationStart = System.nanoTime();
+			final long iterationNodes = stats.nodes; 
+			depthLimited = false; 
 			
-			//If our result is null, we hit a time limit, so continue to return null.
-			//This ensures we explore a tree of an equal depth. 
-			if(result == null) return null;
+			//Run the search based on our current state
+			final Pair curr = (ans == null || Consts.ASPIRATION_WINDOW <= 0) ? 
+					searchRoot(state, Integer.MIN_VALUE, Integer.MAX_VALUE, depth, algorithm) : 
+					aspirationSearch(state, ans.utility, depth, algorithm);
 			
-			//If our results utility is better then the current,  update the current.
-			if(move == null || result.utility < v)
+			//If our result is null, we ran out of time part way through the iteration
+			if(curr == null)
+				break; 
+			
+			ans = curr; 
+			
+			//If we ran out of time, but finished enough of the iteration to improve on the last one, use what we have
+			if(curr.partial)
 			{
-				v = result.utility;
-				move = a.action;
-				
-				beta = Math.min(beta, v);
+				stats.partialIteration = true; 
+				break; 
+			}
+			
+			stats.depth = depth; 
+			
+			//Once every line reaches the end of the game, there is nothing left to search. A game can never 
+			//have more moves than empty squares, or more passes than moves. 
+			if(!depthLimited || depth >= 2 * empties)
+			{
+				stats.stoppedEarly = true; 
+				break; 
+			}
+			
+			//Do not start an iteration that we do not expect to finish
+			if(time != null && !time.startNextIteration(System.nanoTime() - iterationStart, stats.nodes - iterationNodes))
+			{
+				stats.stoppedEarly = true; 
+				break; 
+			}
+			
+			//Increment depth 
+			depth++;  //TODO: WHICH VERSION	
+		}
+		
+		//If we ran out of time before finishing a single root move, fall back on the ordering
+		if(ans == null && rootCount > 0)
+			ans = new Pair(rootScores[0], State.squareToAction(rootMoves[0]));
+		
+		return ans; 
+	}
+	
+	/**
+	 * Searches the root with a window centred on the previous iteration's score. The score rarely moves much between 
+	 * iterations, and a narrow window lets far more of the tree be cut off. If the score falls outside of the window, 
+	 * the window is widened on that side by Consts.ASPIRATION_GROWTH and the iteration is searched again. 
+	 * @param state The root state
+	 * @param previous The score from the previous iteration
+	 * @param depth The depth to search
+	 * @param algorithm The algorithm to search with
+	 * @return A pair that stores the best action along with its utility, or null if we ran out of time
+	 */
+	private final Pair aspirationSearch(State state, float previous, int depth, SearchAlgorithm algorithm)
+	{
+		float alphaDelta = Consts.ASPIRATION_WINDOW; 
+		float betaDelta = Consts.ASPIRATION_WINDOW; 
+		
+		stats.aspirationSearches++; 
+		
+		while(true)
+		{
+			//Once a side has been widened past the limit, just open it up completely
+			final float alpha = (alphaDelta > Consts.ASPIRATION_LIMIT) ? Integer.MIN_VALUE : previous - alphaDelta; 
+			final float beta = (betaDelta > Consts.ASPIRATION_LIMIT) ? Integer.MAX_VALUE : previous + betaDelta; 
+			
+			final Pair curr = searchRoot(state, alpha, beta, depth, algorithm);
+			
+			//If our result is null, we hit a time limit. If it is partial, it is already better than the last iteration. 
+			if(curr == null || curr.partial) return curr; 
+			
+			if(curr.utility <= alpha && alpha > Integer.MIN_VALUE)
+			{
+				stats.aspirationFailLows++; 
+				alphaDelta *= Consts.ASPIRATION_GROWTH; 
+			}
+			else if(curr.utility >= beta && beta < Integer.MAX_VALUE)
+			{
+				stats.aspirationFailHighs++; 
+				betaDelta *= Consts.ASPIRATION_GROWTH; 
+			}
+			else 
+				return curr; 
+		}
+	}
+	
+	/**
+	 * Searches the root with the given algorithm and window. 
+	 * <br />
+	 * Root moves are searched in the order from the previous iteration (see sortRoot). If we run out of time part way 
+	 * through, the moves that were finished are still used: the first move was the best one last iteration, so if it 
+	 * was searched, the best of the finished moves is at least as good a choice as the previous iteration's move. 
+	 * @return A pair that stores the best action along with its utility, or null if we ran out of time before it was 
+	 * worth using. If we ran out of time part way through, the pair is marked as partial. 
+	 */
+	private final Pair searchRoot(State state, float alpha, float beta, int depth, SearchAlgorithm algorithm)
+	{
+		//If we must pass, there is nothing to order
+		if(rootCount == 0)
+			return (algorithm == SearchAlgorithm.PVS) ? PVS(state, alpha, beta, depth) : MaxValue(state, alpha, beta, depth);
+		
+		if(stopped()) return null;
+		
+		stats.nodes++; 
+		
+		final float alphaOrig = alpha; 
+		
+		float v = Integer.MIN_VALUE; 
+		int best = -1; 
+		boolean timedOut = false; 
+		
+		for(int i = 0; i < rootCount; i++)
+		{
+			state.makeMove(undo, rootMoves[i]);
+			
+			Pair result; 
+			if(algorithm != SearchAlgorithm.PVS)
+			{
+				result = MinValue(state, alpha, beta, depth - 1);
+			}
+			else if(best == -1)
+			{
+				result = PVS(state, -beta, -alpha, depth - 1);
+			}
+			else 
+			{
+				//Try to prove that this move is no better than alpha with a null window, and search it again if it was
+				result = PVS(state, -Math.nextUp(alpha), -alpha, depth - 1);
+				if(result != null && -result.utility > alpha && -result.utility < beta)
+					result = PVS(state, -beta, -alpha, depth - 1);
+			}
+			
+			state.unmakeMove(undo);
+			
+			if(result == null)
+			{
+				timedOut = true; 
+				break; 
+			}
+			
+			//The PVS search is negamax, so the child's score is from the opponent's point of view
+			final float score = (algorithm == SearchAlgorithm.PVS) ? -result.utility : result.utility; 
+			rootScores[i] = score; 
+			
+			if(best == -1 || score > v)
+			{
+				v = score; 
+				best = i; 
+				alpha = Math.max(alpha, v);
+			}
+			
+			if(v >= beta)
+				break; 
+		}
+		
+		final int move = (best == -1) ? TranspositionTable.NO_MOVE : rootMoves[best];
+		
+		//Order the moves for the next iteration, or the next search of this one
+		if(best != -1)
+			sortRoot(best);
+		
+		if(timedOut)
+		{
+			//A move that did not beat alpha only has an upper bound, which does not tell us it is any good
+			if(best == -1 || v <= alphaOrig)
+				return null; 
+			
+			final Pair partial = new Pair(v, State.squareToAction(move));
+			partial.partial = true; 
+			return partial; 
+		}
+		
+		store(state.getHash() ^ searchKey, v, bound(v, alphaOrig, beta), depth, move);
+		return new Pair(v, State.squareToAction(move));
+	}
+	
+	/**
+	 * Sets up the root moves for a new search. The move from the table goes first, and the rest are ordered by the 
+	 * evaluation function. 
+	 */
+	private final void initRoot(State state)
+	{
+		final long entry = probe(state.getHash() ^ searchKey);
+		final int hashMove = (entry == 0) ? TranspositionTable.NO_MOVE : TranspositionTable.move(entry);
+		
+		rootCount = 0; 
+		for(long m = state.getMoveMask(state.getPlayer()); m != 0; m &= m - 1)
+		{
+			final int sq = Long.numberOfTrailingZeros(m);
+			
+			state.makeMove(undo, sq);
+			rootScores[rootCount] = (sq == hashMove) ? Float.POSITIVE_INFINITY : evaluate(state);
+			state.unmakeMove(undo);
+			
+			rootMoves[rootCount++] = sq; 
+		}
+		
+		sortRoot(-1);
+	}
+	
+	/**
+	 * Orders the root moves for the next search: the best move from the last search first, followed by the rest 
+	 * from highest to lowest score. Moves that did not beat the best only have an upper bound, but it is still a good 
+	 * guess at how they compare. Moves that were not reached keep their score from the iteration before. 
+	 * @param best The index of the best move, or -1 to just sort by score
+	 */
+	private final void sortRoot(int best)
+	{
+		//Move the best move to the front
+		if(best > 0)
+		{
+			final int move = rootMoves[best];
+			final float score = rootScores[best];
+			System.arraycopy(rootMoves, 0, rootMoves, 1, best);
+			System.arraycopy(rootScores, 0, rootScores, 1, best);
+			rootMoves[0] = move; 
+			rootScores[0] = score; 
+		}
+		
+		//Insertion sort the rest, keeping moves with equal scores in the same order
+		for(int i = (best == -1) ? 1 : 2; i < rootCount; i++)
+		{
+			final int move = rootMoves[i];
+			final float score = rootScores[i];
+			
+			int j = i - 1; 
+			while(j >= ((best == -1) ? 0 : 1) && rootScores[j] < score)
+			{
+				rootMoves[j + 1] = rootMoves[j];
+				rootScores[j + 1] = rootScores[j];
+				j--; 
+			}
+			rootMoves[j + 1] = move; 
+			rootScores[j + 1] = score; 
+		}
+	}
+	
+	/**
+	 * Processes a max node in our search. 
+	 * @param state The current state. 
+	 * @param alpha The alpha value in minmax search. 
+	 * @param beta The beta value in minmax search. 
+	 * @param depth The max search depth
+	 * @return A pair that stores the best action along with its utility 
+	 */
+	private final Pair MaxValue(State state, float alpha, float beta, int depth)
+	{
+		//If we have exceeded our runtime, then return null. 
+		if(stopped()) return null;
+		
+		stats.nodes++; 
+		
+		//If the state is terminal, then return the utility of the state and null for the action. 
+		final boolean terminal = Game.isTerminal(state); 
+		if(terminal || depth == 0)
+		{
+			depthLimited |= !terminal; 
+			return new Pair(evaluate(state), null);
+		}
+		
+		final int ply = undo.size(); 
+		
+		//Check if we have already searched this state deep enough to reuse the result. 
+		//At the root, we always search so that way we have a move to return. 
+		final long key = state.getHash() ^ searchKey; 
+		final long entry = probe(key);
+		if(entry != 0 && ply != 0 && TranspositionTable.depth(entry) >= depth)
+		{
+			final float score = TranspositionTable.score(entry);
+			final int bound = TranspositionTable.bound(entry);
+			
+			if(bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && score >= beta) || (bound == TranspositionTable.UPPER && score <= alpha))
+			{
+				//We cannot tell if the entry's search reached the end of the game
+				depthLimited = true; 
+				return new Pair(score, null);
+			}
+		}
+		
+		final float alphaOrig = alpha; 
+		
+		//Variables to store the min move utility and the corresponding move. 
+		float v = Integer.MIN_VALUE; 
+		byte[] move = null; 
+		int moveSquare = TranspositionTable.NO_MOVE; 
+		
+		//If we have no moves, we must pass. 
+		if(!startMoves(state, ply, (entry == 0) ? TranspositionTable.NO_MOVE : TranspositionTable.move(entry)))
+		{
+			state.makePass(undo);
+			final Pair result = MinValue(state, alpha, beta, depth - 1);
+			state.unmakePass(undo);
+			
+			//If our result is null, we hit a time limit, so continue to return null.
+			//This ensures we explore a tree of an equal depth. 
+			if(result == null) return null;
+			
+			store(key, result.utility, bound(result.utility, alphaOrig, beta), depth, TranspositionTable.NO_MOVE);
+			return new Pair(result.utility, null); //Essentially passing
+		}
+		
+		//Otherwise, check our list of actions to determine which is the best. 
+		for(int a = nextMove(state, ply, depth, true); a != MoveBuffer.NONE; a = nextMove(state, ply, depth, true))
+		{
+			//Run the MinVal part of the search
+			state.makeMove(undo, a);
+			final Pair result = MinValue(state, alpha, beta, depth - 1);
+			state.unmakeMove(undo);
+			
+			//If our result is null, we hit a time limit, so continue to return null.
+			//This ensures we explore a tree of an equal depth. 
+			if(result == null) return null;
+			
+			//If our results utility is better then the current,  update the current.
+			if(move == null || result.utility > v)
+			{
+				v = result.utility; 
+				move = State.squareToAction(a); 
+				moveSquare = a; 
+				
+				alpha = Math.max(alpha, v);
+			}
+			
+			if(v >= beta)
+			{
+				recordCutoff(state.getPlayer(), ply, a, depth);
+				store(key, v, TranspositionTable.LOWER, depth, moveSquare);
+				return new Pair(v, move);
+			}
+		}
+		
+		store(key, v, bound(v, alphaOrig, beta), depth, moveSquare);
+		return new Pair(v, move);
+	}
+	
+	/**
+	 * Processes a min node in our search. 
+	 * @param state The current state. 
+	 * @param alpha The alpha value in minmax search. 
+	 * @param beta The beta value in minmax search. 
+	 * @param depth The max search depth
+	 * @return A pair that stores the best action along with its utility 
+	 */
+	private final Pair MinValue(State state, float alpha, float beta, int depth)
+	{
+		//If we exceed our time limit, return null
+		if(stopped()) return null;
+		
+		stats.nodes++; 
+		
+		//If the state is terminal, then return the utility of the state and null for the action. 
+		final boolean terminal = Game.isTerminal(state); 
+		if(terminal || depth == 0)
+		{
+			depthLimited |= !terminal; 
+			return new Pair(evaluate(state), null);
+		}
+		
+		final int ply = undo.size(); 
+		
+		//Check if we have already searched this state deep enough to reuse the result. 
+		final long key = state.getHash() ^ searchKey; 
+		final long entry = probe(key);
+		if(entry != 0 && ply != 0 && TranspositionTable.depth(entry) >= depth)
+		{
+			final float score = TranspositionTable.score(entry);
+			final int bound = TranspositionTable.bound(entry);
+			
+			if(bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && score >= beta) || (bound == TranspositionTable.UPPER && score <= alpha))
+			{
+				//We cannot tell if the entry's search reached the end of the game
+				depthLimited = true; 
+				return new Pair(score, null);
+			}
+		}
+		
+		final float betaOrig = beta; 
+		
+		//Variables to store the max move utility and the corresponding move. 
+		float v = Integer.MAX_VALUE;
+		byte[] move = null; 
+		int moveSquare = TranspositionTable.NO_MOVE; 
+		
+		//If we have no moves, we must pass. 
+		if(!startMoves(state, ply, (entry == 0) ? TranspositionTable.NO_MOVE : TranspositionTable.move(entry)))
+		{
+			state.makePass(undo);
+			final Pair result = MaxValue(state, alpha, beta, depth - 1);
+			state.unmakePass(undo);
+			
+			//If our result is null, we hit a time limit, so continue to return null.
+			//This ensures we explore a tree of an equal depth. 
+			if(result == null) return null;
+			
+			store(key, result.utility, bound(result.utility, alpha, betaOrig), depth, TranspositionTable.NO_MOVE);
+			return new Pair(result.utility, null); //Essentially passing
+		}
+		
+		
+//		Otherwise, check our list of actions to determine which is the best. 
+		for(int a = nextMove(state, ply, depth, false); a != MoveBuffer.NONE; a = nextMove(state, ply, depth, false))
+		{
+			//Run the MinVal part of the search
+			state.makeMove(undo, a);
+			final Pair result = MaxValue(state, alpha, beta, depth - 1);
+			state.unmakeMove(undo);
+			
+			//If our result is null, we hit a time limit, so continue to return null.
+			//This ensures we explore a tree of an equal depth. 
+			if(result == null) return null;
+			
+			//If our results utility is better then the current,  update the current.
+			if(move == null || result.utility < v)
+			{
+				v = result.utility;
+				move = State.squareToAction(a);
+				moveSquare = a; 
+				
+				beta = Math.min(beta, v);
 			}
 			
 			if(v <= alpha)
+			{
+				recordCutoff(state.getPlayer(), ply, a, depth);
+				store(key, v, TranspositionTable.UPPER, depth, moveSquare);
 				return new Pair(v, move);
+			}
 		}
+		
+		store(key, v, bound(v, alpha, betaOrig), depth, moveSquare);
 		return new Pair(v, move);
 	}
 	
-
-	public static final class EvaluatedAction implements Comparable<EvaluatedAction>{
-		byte[] action;
-		State state;
-		Float utility;
+	/**
+	 * Processes a node in our Principal Variation Search. This is a negamax search, so utilities are always from the 
+	 * point of view of the player to move, and every node maximizes. The first move (which the ordering expects to 
+	 * be the best) is searched with the full window. Every other move is searched with a null window, which only 
+	 * proves whether the move is better than the best so far. If it is, the move is searched again with the full window. 
+	 * <br />
+	 * Scores in the transposition table are always stored from our player's point of view, the same as MaxValue 
+	 * and MinValue, so both searches can share the table. 
+	 * @param state The current state. 
+	 * @param alpha The alpha value for the player to move. 
+	 * @param beta The beta value for the player to move. 
+	 * @param depth The max search depth
+	 * @return A pair that stores the best action along with its utility for the player to move
+	 */
+	private final Pair PVS(State state, float alpha, float beta, int depth)
+	{
+		//If we have exceeded our runtime, then return null. 
+		if(stopped()) return null;
+		
+		stats.nodes++; 
+		
+		//The evaluation is for our player, so it has to be negated when it is the opponent's move
+		final boolean ours = state.getPlayer() == rootPlayer; 
+		
+		//If the state is terminal, then return the utility of the state and null for the action. 
+		final boolean terminal = Game.isTerminal(state); 
+		if(terminal || depth == 0)
+		{
+			depthLimited |= !terminal; 
+			final float v = evaluate(state);
+			return new Pair(ours ? v : -v, null);
+		}
+		
+		final int ply = undo.size(); 
+		
+		//Check if we have already searched this state deep enough to reuse the result. 
+		//At the root, we always search so that way we have a move to return. 
+		final long key = state.getHash() ^ searchKey; 
+		final long entry = probe(key);
+		if(entry != 0 && ply != 0 && TranspositionTable.depth(entry) >= depth)
+		{
+			final float score = ours ? TranspositionTable.score(entry) : -TranspositionTable.score(entry);
+			final int bound = ours ? TranspositionTable.bound(entry) : flip(TranspositionTable.bound(entry));
+			
+			if(bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && score >= beta) || (bound == TranspositionTable.UPPER && score <= alpha))
+			{
+				//We cannot tell if the entry's search reached the end of the game
+				depthLimited = true; 
+				return new Pair(score, null);
+			}
+		}
+		
+		final float alphaOrig = alpha; 
+		
+		float v = Integer.MIN_VALUE; 
+		byte[] move = null; 
+		int moveSquare = TranspositionTable.NO_MOVE; 
+		
+		//If we have no moves, we must pass. 
+		if(!startMoves(state, ply, (entry == 0) ? TranspositionTable.NO_MOVE : TranspositionTable.move(entry)))
+		{
+			state.makePass(undo);
+			final Pair result = PVS(state, -beta, -alpha, depth - 1);
+			state.unmakePass(undo);
+			
+			if(result == null) return null;
+			
+			v = -result.utility; 
+			storeNegamax(key, v, bound(v, alphaOrig, beta), depth, TranspositionTable.NO_MOVE, ours);
+			return new Pair(v, null); //Essentially passing
+		}
+		
+		//Ordering is by our evaluation, so we want the best moves for us at our nodes and the worst at the opponent's
+		for(int a = nextMove(state, ply, depth, ours); a != MoveBuffer.NONE; a = nextMove(state, ply, depth, ours))
+		{
+			state.makeMove(undo, a);
+			
+			Pair result; 
+			if(move == null)
+			{
+				result = PVS(state, -beta, -alpha, depth - 1);
+			}
+			else 
+			{
+				//Try to prove that this move is no better than alpha with a null window
+				result = PVS(state, -Math.nextUp(alpha), -alpha, depth - 1);
+				
+				//If it was better, we need its actual value, so search it again with the full window
+				if(result != null && -result.utility > alpha && -result.utility < beta)
+					result = PVS(state, -beta, -alpha, depth - 1);
+			}
+			
+			state.unmakeMove(undo);
+			
+			//If our result is null, we hit a time limit, so continue to return null.
+			if(result == null) return null;
+			
+			final float score = -result.utility; 
+			
+			if(move == null || score > v)
+			{
+				v = score; 
+				move = State.squareToAction(a); 
+				moveSquare = a; 
+				
+				alpha = Math.max(alpha, v);
+			}
+			
+			if(v >= beta)
+			{
+				recordCutoff(state.getPlayer(), ply, a, depth);
+				storeNegamax(key, v, TranspositionTable.LOWER, depth, moveSquare, ours);
+				return new Pair(v, move);
+			}
+		}
+		
+		storeNegamax(key, v, bound(v, alphaOrig, beta), depth, moveSquare, ours);
+		return new Pair(v, move);
+	}
+	
+	/**
+	 * Stores a negamax result in the transposition table, converting it to our player's point of view. 
+	 * @param ours true if the result is from our player's point of view already
+	 */
+	private final void storeNegamax(long key, float v, int bound, int depth, int move, boolean ours)
+	{
+		if(ours)
+			store(key, v, bound, depth, move);
+		else
+			store(key, -v, flip(bound), depth, move);
+	}
+	
+	/**
+	 * Used to determine if the search has to stop, either because we are out of time, or because the parallel search 
+	 * no longer needs the result. 
+	 * @return true if the search should return null; false otherwise
+	 */
+	private final boolean stopped()
+	{
+		if(aborted || --untilCheck > 0)
+			return aborted; 
+		
+		untilCheck = Consts.NODES_PER_TIME_CHECK; 
+		aborted = System.nanoTime() - endAt >= 0 || (task != null && task.cancelled());
+		return aborted; 
+	}
+	
+	/**
+	 * Evaluates a state for the player we are searching for
+	 */
+	private final float evaluate(State state) { return evaluator.evaluate(state, rootPlayer); }
+	
+	/**
+	 * Looks up a key in the transposition table, if this searcher uses it
+	 */
+	private final long probe(long key) { return useTable ? TABLE.probe(key) : 0; }
+	
+	/**
+	 * Stores a result in the transposition table, if this searcher uses it
+	 */
+	private final void store(long key, float v, int bound, int depth, int move)
+	{
+		if(useTable)
+			TABLE.store(key, v, bound, depth, move);
+	}
+	
+	/**
+	 * Swaps upper and lower bounds, for when a score is negated. 
+	 */
+	private static final int flip(int bound)
+	{
+		if(bound == TranspositionTable.LOWER)
+			return TranspositionTable.UPPER; 
+		if(bound == TranspositionTable.UPPER)
+			return TranspositionTable.LOWER; 
+		return bound; 
+	}
+	
+	/**
+	 * Sets up move picking for a node. 
+	 * @param state The current state
+	 * @param ply The ply of the node
+	 * @param hashMove The best move from the transposition table, or NO_MOVE
+	 * @return true if the player to move has any moves; false if they must pass
+	 */
+	private final boolean startMoves(State state, int ply, int hashMove)
+	{
+		legal[ply] = state.getMoveMask(state.getPlayer());
+		picked[ply] = 0; 
+		hashMoves[ply] = hashMove; 
+		stage[ply] = STAGE_HASH; 
+		
+		stats.orderingCandidates += Long.bitCount(legal[ply]);
+		
+		return legal[ply] != 0; 
+	}
+	
+	/**
+	 * Picks the next move to search at a node. The move from the table is first, then the killer moves, 
+	 * and then the rest of the moves in order of their score. The rest of the moves are only scored once 
+	 * we reach them. Near the root (when there is a lot of depth left), they are scored with the full evaluation 
+	 * function, as a good order saves far more than it costs. Closer to the leaves, the evaluation would cost about 
+	 * as much as the search it is ordering, so they are scored with the history heuristic and tile weights instead. 
+	 * @param state The current state
+	 * @param ply The ply of the node
+	 * @param depth The remaining depth of the node
+	 * @param max true if this is a max node; false if it is a min node
+	 * @return The square of the next move, or MoveBuffer.NONE if every move has been picked
+	 */
+	@SuppressWarnings("fallthrough") //Each stage falls through to the next once it runs out of moves
+	private final int nextMove(State state, int ply, int depth, boolean max)
+	{
+		final long moves = legal[ply];
+		
+		switch(stage[ply])
+		{
+			case STAGE_HASH: 
+			{
+				stage[ply] = STAGE_KILLER_1; 
+				final int m = hashMoves[ply];
+				if(m != TranspositionTable.NO_MOVE && (moves & (1L << m)) != 0)
+				{
+					picked[ply] |= 1L << m; 
+					return m; 
+				}
+			}
+			//fall through 
+			case STAGE_KILLER_1: 
+			{
+				stage[ply] = STAGE_KILLER_2; 
+				final int m = killers[ply][0];
+				if(m != TranspositionTable.NO_MOVE && (moves & ~picked[ply] & (1L << m)) != 0)
+				{
+					picked[ply] |= 1L << m; 
+					return m; 
+				}
+			}
+			//fall through
+			case STAGE_KILLER_2: 
+			{
+				stage[ply] = STAGE_GENERATE; 
+				final int m = killers[ply][1];
+				if(m != TranspositionTable.NO_MOVE && (moves & ~picked[ply] & (1L << m)) != 0)
+				{
+					picked[ply] |= 1L << m; 
+					return m; 
+				}
+			}
+			//fall through
+			case STAGE_GENERATE: 
+			{
+				stage[ply] = STAGE_REST; 
+				
+				final MoveBuffer buffer = buffers[ply];
+				buffer.clear();
+				
+				final boolean evaluate = depth >= Consts.EVAL_ORDER_DEPTH; 
+				final int[] playerHistory = history[state.getPlayer()];
+				
+				for(long m = moves & ~picked[ply]; m != 0; m &= m - 1)
+				{
+					final int sq = Long.numberOfTrailingZeros(m);
+					
+					if(evaluate)
+					{
+						state.makeMove(undo, sq);
+						buffer.add(sq, evaluate(state));
+						state.unmakeMove(undo);
+						stats.orderingEvaluations++; 
+					}
+					else 
+					{
+						//History scores are better for the player moving, so flip them at min nodes to keep popMin picking the best
+						final float score = playerHistory[sq] + State.STATE_WEIGHTS[sq >> 3][sq & 7];
+						buffer.add(sq, max ? score : -score);
+					}
+				}
+			}
+			//fall through
+			default: 
+				return max ? buffers[ply].popMax() : buffers[ply].popMin();
+		}
+	}
+	
+	/**
+	 * Records that a move caused a cutoff, for the killer and history heuristics. 
+	 * @param player The player that made the move
+	 * @param ply The ply of the node
+	 * @param sq The square of the move
+	 * @param depth The remaining depth of the node
+	 */
+	private final void recordCutoff(byte player, int ply, int sq, int depth)
+	{
+		history[player][sq] += depth * depth; 
 		
-		public EvaluatedAction(byte[] action, State state) {
-			this.action = action;
-			this.state = state;
-			this.utility = Game.utility(state); 
+		if(killers[ply][0] != sq)
+		{
+			killers[ply][1] = killers[ply][0];
+			killers[ply][0] = sq; 
 		}
+	}
+	
+	/**
+	 * Determines what kind of bound a score is, given the window it was searched with. 
+	 * @param v The score found by the search
+	 * @param alpha The alpha value the node was searched with
+	 * @param beta The beta value the node was searched with
+	 * @return The bound type to store in the transposition table
+	 */
+	private static final int bound(float v, float alpha, float beta)
+	{
+		if(v <= alpha)
+			return TranspositionTable.UPPER; 
+		if(v >= beta)
+			return TranspositionTable.LOWER; 
+		return TranspositionTable.EXACT; 
+	}
+	
+
 
+	/**
+	 * A node of the Young Brothers Wait parallel search (see ParallelABSearch). Each task has its own copy of its state, 
+	 * and returns its score clamped to its window, or null if it was cancelled. 
+	 */
+	private static final class SplitTask extends RecursiveTask<Float> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final SplitTask parent; 
+		private final State state; 
+		private final float alpha; 
+		private final float beta; 
+		private final int depth; 
+		private final boolean max; 
+		
+		/**
+		 * The evaluation function, and the player at the root who the evaluation is for
+		 */
+		private final Evaluator evaluator; 
+		private final byte rootPlayer; 
+		
+		/**
+		 * The number of nodes searched by every task in the search
+		 */
+		private final LongAdder nodes; 
+		
+		/**
+		 * The move that led to this task's state, and the best move found from it
+		 */
+		private int move = TranspositionTable.NO_MOVE; 
+		private int bestMove = TranspositionTable.NO_MOVE; 
+		
+		/**
+		 * Set by a child that caused a cutoff. Once set, the rest of this task's children are no longer needed. 
+		 */
+		private volatile boolean cutoff = false; 
+		
+		/**
+		 * Creates the task for the root of a search
+		 */
+		SplitTask(State state, int depth, Evaluator evaluator)
+		{
+			this.parent = null; 
+			this.state = state; 
+			this.alpha = Integer.MIN_VALUE; 
+			this.beta = Integer.MAX_VALUE; 
+			this.depth = depth; 
+			this.max = true; 
+			this.evaluator = evaluator; 
+			this.rootPlayer = state.getPlayer(); 
+			this.nodes = new LongAdder(); 
+		}
+		
+		/**
+		 * Creates the task for a node below the root, which searches with the same evaluation function as its parent
+		 */
+		SplitTask(SplitTask parent, State state, float alpha, float beta, int depth, boolean max)
+		{
+			this.parent = parent; 
+			this.state = state; 
+			this.alpha = alpha; 
+			this.beta = beta; 
+			this.depth = depth; 
+			this.max = max; 
+			this.evaluator = parent.evaluator; 
+			this.rootPlayer = parent.rootPlayer; 
+			this.nodes = parent.nodes; 
+		}
+		
+		/**
+		 * Used to determine if a cutoff above this task means its result is no longer needed
+		 * @return true if the task has been cancelled; false otherwise
+		 */
+		boolean cancelled()
+		{
+			for(SplitTask t = parent; t != null; t = t.parent)
+				if(t.cutoff)
+					return true; 
+			return false; 
+		}
+		
 		@Override
-		public int compareTo(EvaluatedAction o) {
-			return utility.compareTo(o.utility);
-		} 
+		protected Float compute()
+		{
+			final Float v = search();
+			
+			//If we refute our parent, our brothers do not need to finish
+			if(v != null && parent != null && (parent.max ? v >= beta : v <= alpha))
+				parent.cutoff = true; 
+			
+			return v; 
+		}
 		
+		private Float search()
+		{
+			if(cancelled()) return null; 
+			
+			if(Game.isTerminal(state) || depth == 0)
+			{
+				nodes.increment();
+				return clamp(evaluator.evaluate(state, rootPlayer));
+			}
+			
+			//Close to the leaves, the tree is too small to be worth splitting
+			if(depth < Consts.SPLIT_DEPTH)
+				return serial();
+			
+			nodes.increment();
+			
+			final UndoStack undo = new UndoStack(1);
+			final long moves = state.getMoveMask(state.getPlayer());
+			
+			//If we have no moves, we must pass. 
+			if(moves == 0)
+			{
+				final State child = state.clone();
+				child.makePass(undo);
+				return new SplitTask(this, child, alpha, beta, depth - 1, !max).compute();
+			}
+			
+			//Order the moves by the evaluation function. This has to be the same every time for the results to be. 
+			final MoveBuffer buffer = new MoveBuffer();
+			for(long m = moves; m != 0; m &= m - 1)
+			{
+				final int sq = Long.numberOfTrailingZeros(m);
+				state.makeMove(undo, sq);
+				buffer.add(sq, evaluator.evaluate(state, rootPlayer));
+				state.unmakeMove(undo);
+			}
+			
+			//Search the eldest brother on our own to get a bound for the rest
+			final SplitTask eldest = child(max ? buffer.popMax() : buffer.popMin(), alpha, beta, undo);
+			final Float first = eldest.compute();
+			if(first == null) return null; 
+			
+			float best = first; 
+			bestMove = eldest.move; 
+			
+			if(max ? best >= beta : best <= alpha)
+				return clamp(best);
+			
+			final float a = max ? Math.max(alpha, best) : alpha; 
+			final float b = max ? beta : Math.min(beta, best);
+			
+			final List<SplitTask> brothers = new ArrayList<>();
+			for(int sq = max ? buffer.popMax() : buffer.popMin(); sq != MoveBuffer.NONE; sq = max ? buffer.popMax() : buffer.popMin())
+				brothers.add(child(sq, a, b, undo));
+			
+			//Fork the worst moves first, so that this thread (which takes its newest task first) starts on the best ones
+			for(int i = brothers.size() - 1; i >= 0; i--)
+				brothers.get(i).fork();
+			
+			for(int i = 0; i < brothers.size(); i++)
+			{
+				final Float v = brothers.get(i).join();
+				
+				if(cutoff || v == null)
+				{
+					//Any brothers that have not started yet never need to
+					for(int j = i + 1; j < brothers.size(); j++)
+						brothers.get(j).cancel(false);
+					
+					//Every brother is searched with the same beta (or alpha), so the result is the same whichever one cut off
+					return cutoff ? (max ? beta : alpha) : null; 
+				}
+				
+				if(max ? v > best : v < best)
+				{
+					best = v; 
+					bestMove = brothers.get(i).move; 
+				}
+			}
+			
+			return clamp(best);
+		}
+		
+		/**
+		 * Creates the task for a child of this task's state
+		 */
+		private SplitTask child(int sq, float alpha, float beta, UndoStack undo)
+		{
+			final State child = state.clone();
+			child.makeMove(undo, sq);
+			undo.clear();
+			
+			final SplitTask task = new SplitTask(this, child, alpha, beta, depth - 1, !max);
+			task.move = sq; 
+			return task; 
+		}
 		
+		/**
+		 * Searches this task's state with MaxValue or MinValue, using the searcher for the current thread. 
+		 */
+		private Float serial()
+		{
+			final IterativeSearch searcher = MAIN.get();
+			final long before = searcher.stats.nodes; 
+			
+			searcher.undo.clear();
+			//The parallel search has no time limit, so give it a deadline that will never come
+			searcher.endAt = System.nanoTime() + Long.MAX_VALUE / 2; 
+			searcher.aborted = false; 
+			searcher.untilCheck = 1; 
+			searcher.useTable = false; 
+			searcher.task = this; 
+			searcher.evaluator = evaluator; 
+			searcher.rootPlayer = rootPlayer; 
+			
+			final Pair result = max ? searcher.MaxValue(state, alpha, beta, depth) : searcher.MinValue(state, alpha, beta, depth);
+			
+			searcher.task = null; 
+			searcher.useTable = true; 
+			nodes.add(searcher.stats.nodes - before);
+			
+			if(result == null) return null; 
+			
+			if(result.action != null)
+				bestMove = result.action[0] * 8 + result.action[1];
+			return clamp(result.utility);
+		}
 		
+		/**
+		 * Clamps a score to this task's window. 
+		 */
+		private float clamp(float v) { return Math.max(alpha, Math.min(beta, v)); }
 	}
+
 	private static final class Pair {
 		float utility; 
 		byte[] action; 
 		
+		/**
+		 * Set on a result from the root when the search ran out of time part way through
+		 */
+		boolean partial = false; 
+		
 		public Pair(float u, byte[] a)
 		{
 			this.utility = u; 
@@ -0,0 +1,157 @@
+package com.ahfriedman.othelloai.searching;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.ahfriedman.othelloai.models.State;
+
+/**
+ * A book of opening moves, stored in a file that is memory-mapped rather than read in.
+ * <br />
+ * The file is a header (MAGIC, VERSION and the number of entries) followed by fixed size entries sorted by key.
+ * Each entry is the canonical hash of a position, the book move in the canonical orientation, and the depth it was
+ * searched to. Every symmetric copy of a position has the same canonical hash (see State.getCanonicalHash), so they all
+ * share one entry. Looking a position up is a binary search
+ * straight over the mapped file, so loading the book reads nothing but the header, and the operating system only
+ * pages in the parts of the file we actually use.
+ * <br />
+ * Books are made by OpeningBookBuilder.
+ */
+public class OpeningBook {
+
+	/**
+	 * The first four bytes of every book file ("OBK" and a 0 byte), and the version of the format. 
+	 * Version 2 changed which symmetric copy a position is keyed by (see State.getCanonicalSymmetry). 
+	 */
+	public static final int MAGIC = 0x4F424B00;
+	public static final int VERSION = 2;
+
+	/**
+	 * The size of the header (magic, version and count) and of each entry (key, square and depth) in bytes
+	 */
+	public static final int HEADER_BYTES = 12;
+	public static final int ENTRY_BYTES = 10;
+
+	/**
+	 * The mapped file
+	 */
+	private final MappedByteBuffer buffer;
+
+	/**
+	 * The number of entries in the book
+	 */
+	private final int count;
+
+	/**
+	 * Maps a book file.
+	 * @param file The book file
+	 * @throws IOException If the file cannot be read, or is not a book
+	 */
+	public OpeningBook(File file) throws IOException
+	{
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+		{
+			//The mapping stays valid after the channel is closed
+			this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if(buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not an opening book: " + file);
+		if(buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported opening book version " + buffer.getInt(4) + ": " + file);
+
+		this.count = buffer.getInt(8);
+		if(count < 0 || HEADER_BYTES + (long) count * ENTRY_BYTES > buffer.capacity())
+			throw new IOException("Truncated opening book: " + file);
+	}
+
+	/**
+	 * Maps a book file if it exists.
+	 * @param path The path of the book file
+	 * @return The book, or null if there is no book at the path or it could not be read
+	 */
+	public static OpeningBook loadIfExists(String path)
+	{
+		final File file = new File(path);
+		if(!file.exists())
+			return null;
+
+		try
+		{
+			return new OpeningBook(file);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Warning: could not load the opening book: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up the book move for the player to move in a state.
+	 * @param state The state
+	 * @return The book move, or null if the state is not in the book
+	 */
+	public byte[] probe(State state)
+	{
+		final int sym = state.getCanonicalSymmetry();
+		final int i = find(state.getHash(sym));
+		if(i < 0)
+			return null;
+
+		//Undo the symmetry to get the move on the real board
+		final int canonical = buffer.get(HEADER_BYTES + i * ENTRY_BYTES + 8);
+		final int sq = State.untransformSquare(canonical, sym);
+
+		//Guard against hash collisions with positions that are not in the book
+		if((state.getMoveMask(state.getPlayer()) & (1L << sq)) == 0)
+			return null;
+
+		return State.squareToAction(sq);
+	}
+
+	/**
+	 * Returns the depth the book move for a state was searched to
+	 * @param state The state
+	 * @return The depth, or -1 if the state is not in the book
+	 */
+	public int depth(State state)
+	{
+		final int i = find(state.getCanonicalHash());
+		return (i < 0) ? -1 : buffer.get(HEADER_BYTES + i * ENTRY_BYTES + 9);
+	}
+
+	/**
+	 * Binary searches for an entry
+	 * @param key The canonical hash to look for
+	 * @return The index of the entry, or -1 if there is none
+	 */
+	private int find(long key)
+	{
+		int lo = 0;
+		int hi = count - 1;
+
+		while(lo <= hi)
+		{
+			final int mid = (lo + hi) >>> 1;
+			final long k = buffer.getLong(HEADER_BYTES + mid * ENTRY_BYTES);
+
+			if(k < key)
+				lo = mid + 1;
+			else if(k > key)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the number of positions in the book
+	 * @return The number of positions in the book
+	 */
+	public int size() { return count; }
+}
@@ -0,0 +1,115 @@
+package com.ahfriedman.othelloai.searching;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ahfriedman.othelloai.evaluation.Evaluator;
+import com.ahfriedman.othelloai.models.Game;
+import com.ahfriedman.othelloai.models.State;
+import com.ahfriedman.othelloai.utils.Consts;
+
+/**
+ * Builds an opening book offline. Every position reachable from the initial state in up to the given number of plies
+ * is searched for much longer than a turn allows, and the move found is written to the book. Positions are deduplicated
+ * by their canonical hash, so each position is only searched once no matter how many symmetric copies of it there are.
+ * Each position is searched for the player to move, so the book holds the best move for whichever side it is played by.
+ * <br />
+ * Usage: OpeningBookBuilder [book file] [plies] [milliseconds per position]
+ */
+public class OpeningBookBuilder {
+
+	public static void main(String... args) throws IOException
+	{
+		final String path = (args.length > 0) ? args[0] : Consts.BOOK_FILE;
+		final int plies = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+		final long t = (args.length > 2) ? Long.parseLong(args[2]) : 10 * Consts.timelimit;
+
+		//Every position is searched for the full time, whatever the phase of the game
+		Consts.OPENING_TIME_SHARE = 1.0;
+
+		//The square (in the canonical orientation) and depth of each position's move, by canonical hash
+		final Map<Long, Integer> entries = new HashMap<Long, Integer>();
+
+		final Set<Long> seen = new HashSet<Long>();
+		List<State> frontier = new ArrayList<State>();
+		frontier.add(new State());
+		seen.add(frontier.get(0).getCanonicalHash());
+
+		for(int ply = 0; ply <= plies && !frontier.isEmpty(); ply++)
+		{
+			final List<State> next = new ArrayList<State>();
+			final long start = System.nanoTime();
+
+			for(State s : frontier)
+			{
+				final List<byte[]> moves = Game.actions(s);
+				if(moves.isEmpty())
+					continue;
+
+				//The search evaluates for the side to move (its root player), so positions with AG2 to move store AG2's best 
+				//move rather than AG1's. AGENT_PLAYER has to stay the same for the whole build, as State credits its tile 
+				//counters by it as each move is made. 
+				final int sym = s.getCanonicalSymmetry();
+				final byte[] move = IterativeSearch.IterativeABSearch(s, t, Consts.SEARCH_ALGORITHM, Evaluator.getDefault());
+				final int sq = State.transformSquare(move[0] * 8 + move[1], sym);
+
+				entries.put(s.getHash(sym), (IterativeSearch.getStats().depth << 8) | sq);
+
+				if(ply < plies)
+				{
+					for(byte[] m : moves)
+					{
+						final State child = Game.result(s, m);
+						if(seen.add(child.getCanonicalHash()))
+							next.add(child);
+					}
+				}
+			}
+
+			System.out.println("ply " + ply + ": " + frontier.size() + " positions in " + (System.nanoTime() - start) / 1_000_000_000L + " s");
+			frontier = next;
+		}
+
+		write(path, entries);
+		System.out.println("Wrote " + entries.size() + " positions to " + path);
+	}
+
+	/**
+	 * Writes a book file, with the entries sorted by key so that OpeningBook can binary search them
+	 * @param path The path of the book file
+	 * @param entries The square and depth of each position, by canonical hash
+	 * @throws IOException If the file cannot be written
+	 */
+	private static void write(String path, Map<Long, Integer> entries) throws IOException
+	{
+		final long[] keys = new long[entries.size()];
+		int i = 0;
+		for(long key : entries.keySet())
+			keys[i++] = key;
+		Arrays.sort(keys);
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path))))
+		{
+			out.writeInt(OpeningBook.MAGIC);
+			out.writeInt(OpeningBook.VERSION);
+			out.writeInt(keys.length);
+
+			for(long key : keys)
+			{
+				final int entry = entries.get(key);
+				out.writeLong(key);
+				out.writeByte(entry & 0xFF);
+				out.writeByte(Math.min(entry >>> 8, Byte.MAX_VALUE));
+			}
+		}
+	}
+}
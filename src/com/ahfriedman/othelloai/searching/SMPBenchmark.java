@@ -0,0 +1,90 @@
+package com.ahfriedman.othelloai.searching;
+
+import java.util.List;
+import java.util.Random;
+
+import com.ahfriedman.othelloai.models.Game;
+import com.ahfriedman.othelloai.models.State;
+import com.ahfriedman.othelloai.utils.Consts;
+
+/**
+ * Measures how the Lazy SMP search scales with the number of threads. For each thread count from 1 to N,
+ * this searches the same set of positions and prints the nodes per second, the speedup over 1 thread,
+ * and the average depth reached.
+ * <br />
+ * Usage: SMPBenchmark [max threads] [milliseconds per search] [positions]
+ */
+public class SMPBenchmark {
+
+	public static void main(String... args)
+	{
+		final int maxThreads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		final long t = (args.length > 1) ? Long.parseLong(args[1]) : Consts.timelimit;
+		final int count = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+
+		final State[] positions = positions(count);
+
+		//Warm up the JIT so the first thread count is not penalised
+		Consts.SEARCH_THREADS = 1;
+		IterativeSearch.IterativeABSearch(positions[0], t);
+
+		double base = 0;
+
+		System.out.println("threads\tnodes/s\tspeedup\tdepth");
+		for(int threads = 1; threads <= maxThreads; threads++)
+		{
+			Consts.SEARCH_THREADS = threads;
+
+			long nodes = 0;
+			long millis = 0;
+			int depth = 0;
+
+			for(State s : positions)
+			{
+				//Start every search cold so that thread counts are compared fairly
+				IterativeSearch.clearTable();
+				IterativeSearch.IterativeABSearch(s, t);
+
+				final SearchStats stats = IterativeSearch.getStats();
+				nodes += stats.totalNodes();
+				millis += stats.elapsedMillis;
+				depth += stats.depth;
+			}
+
+			final double nps = nodes * 1000.0 / Math.max(1, millis);
+			if(threads == 1)
+				base = nps;
+
+			System.out.printf("%d\t%.0f\t%.2f\t%.1f%n", threads, nps, nps / base, (double) depth / positions.length);
+		}
+
+		Consts.SEARCH_THREADS = 1;
+	}
+
+	/**
+	 * Creates a reproducible set of midgame positions by playing random moves from the initial state.
+	 * @param count The number of positions to create
+	 * @return The positions
+	 */
+	private static State[] positions(int count)
+	{
+		final Random random = new Random(count);
+		final State[] positions = new State[count];
+
+		for(int i = 0; i < count; i++)
+		{
+			State s = new State();
+			final int plies = 10 + random.nextInt(30);
+
+			for(int p = 0; p < plies && !Game.isTerminal(s); p++)
+			{
+				final List<byte[]> moves = Game.actions(s);
+				s = moves.isEmpty() ? Game.pass(s) : Game.result(s, moves.get(random.nextInt(moves.size())));
+			}
+
+			positions[i] = s;
+		}
+
+		return positions;
+	}
+}
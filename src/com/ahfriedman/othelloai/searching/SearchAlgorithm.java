@@ -0,0 +1,20 @@
+package com.ahfriedman.othelloai.searching;
+
+/**
+ * The algorithms IterativeSearch can use to search each iteration
+ */
+public enum SearchAlgorithm {
+
+	/**
+	 * Fail-soft alpha-beta minmax search, with separate max and min nodes (MaxValue and MinValue). Each node returns 
+	 * the best value it found even when that is outside the window, which the transposition table bounds and the 
+	 * aspiration window re-searches rely on
+	 */
+	ALPHA_BETA,
+
+	/**
+	 * Principal Variation Search (NegaScout). A negamax search that searches the first move with the full window,
+	 * and every other move with a null window, only searching again if a move turns out to be better.
+	 */
+	PVS
+}
@@ -0,0 +1,134 @@
+package com.ahfriedman.othelloai.searching;
+
+/**
+ * Counters collected during a search, so that changes to the search can be measured.
+ * The counters are reset at the start of every call to IterativeABSearch.
+ */
+public class SearchStats {
+
+	/**
+	 * The number of nodes (calls to MaxValue and MinValue) visited
+	 */
+	public long nodes;
+
+	/**
+	 * The number of children at interior nodes. Ordering every node by evaluating all of its children
+	 * would have needed this many evaluations.
+	 */
+	public long orderingCandidates;
+
+	/**
+	 * The number of evaluations actually used to order moves
+	 */
+	public long orderingEvaluations;
+
+	/**
+	 * The deepest iteration that was completed
+	 */
+	public int depth;
+
+	/**
+	 * The number of nodes visited by Lazy SMP helper threads, and the number of threads used in total
+	 */
+	public long helperNodes;
+	public int threads;
+
+	/**
+	 * How long the search took in milliseconds, and how long the time manager aimed for it to take
+	 */
+	public long elapsedMillis;
+	public long targetMillis;
+
+	/**
+	 * The effective branching factor measured between the last two iterations, and whether the search stopped before 
+	 * running out of time (because there was only one move, the tree was solved, or the next iteration would not have finished)
+	 */
+	public double branchingFactor;
+	public boolean stoppedEarly;
+
+	/**
+	 * Whether the move came from an iteration that ran out of time part way through
+	 */
+	public boolean partialIteration;
+
+	/**
+	 * The number of iterations searched with an aspiration window, and how many times the score fell
+	 * below or above the window so that the iteration had to be searched again
+	 */
+	public long aspirationSearches;
+	public long aspirationFailLows;
+	public long aspirationFailHighs;
+
+	/**
+	 * The number of empty squares when the endgame solver was tried (0 if it was not), whether it was an exact solve, 
+	 * whether it finished in time, and the number of nodes it searched
+	 */
+	public int endgameEmpties;
+	public boolean endgameExact;
+	public boolean endgameSolved;
+	public long endgameNodes;
+
+	/**
+	 * Resets all of the counters to 0
+	 */
+	public void reset()
+	{
+		nodes = 0;
+		orderingCandidates = 0;
+		orderingEvaluations = 0;
+		depth = 0;
+		helperNodes = 0;
+		threads = 1;
+		elapsedMillis = 0;
+		targetMillis = 0;
+		branchingFactor = 0;
+		stoppedEarly = false;
+		partialIteration = false;
+		aspirationSearches = 0;
+		aspirationFailLows = 0;
+		aspirationFailHighs = 0;
+		endgameEmpties = 0;
+		endgameExact = false;
+		endgameSolved = false;
+		endgameNodes = 0;
+	}
+
+	/**
+	 * The number of nodes visited by every thread
+	 * @return The number of nodes visited by every thread
+	 */
+	public long totalNodes() { return nodes + helperNodes; }
+
+	/**
+	 * The number of nodes visited per second by every thread
+	 * @return The number of nodes visited per second by every thread, or 0 if no time was measured
+	 */
+	public double nodesPerSecond() { return (elapsedMillis == 0) ? 0 : totalNodes() * 1000.0 / elapsedMillis; }
+
+	/**
+	 * The number of evaluations that staged move ordering did not need to make
+	 * @return The number of evaluations avoided
+	 */
+	public long evaluationsAvoided() { return orderingCandidates - orderingEvaluations; }
+
+	/**
+	 * The number of extra searches caused by aspiration windows, per aspiration search. 
+	 * If this is high, Consts.ASPIRATION_WINDOW is too narrow. If it is close to 0, it could probably be narrower. 
+	 * @return The re-search rate, or 0 if there were no aspiration searches
+	 */
+	public double researchRate()
+	{
+		return (aspirationSearches == 0) ? 0 : (double) (aspirationFailLows + aspirationFailHighs) / aspirationSearches;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "depth: " + depth + "; time: " + elapsedMillis + " of " + targetMillis + " ms" + (stoppedEarly ? " (stopped early)" : "") + (partialIteration ? " (partial iteration used)" : "") + 
+				"; branching factor: " + String.format("%.2f", branchingFactor) + "; nodes: " + nodes + " (" + totalNodes() + " on " + threads + " threads, " + (long) nodesPerSecond() + "/s)" +
+				"; ordering evaluations: " + orderingEvaluations + " (avoided " + evaluationsAvoided() + " of " + orderingCandidates + ")" +
+				"; aspiration re-searches: " + aspirationFailLows + " low, " + aspirationFailHighs + " high in " + aspirationSearches + " (" + researchRate() + ")" +
+				((endgameEmpties == 0) ? "" : "; endgame: " + (endgameExact ? "exact" : "win/loss/draw") + " at " + endgameEmpties + " empties, " + 
+						(endgameSolved ? "solved" : "not solved") + " in " + endgameNodes + " nodes");
+	}
+}
@@ -0,0 +1,152 @@
+package com.ahfriedman.othelloai.searching;
+
+import com.ahfriedman.othelloai.models.State;
+import com.ahfriedman.othelloai.utils.Consts;
+
+/**
+ * Decides how long a search can run for. All times are from System.nanoTime.
+ * <br />
+ * Each search has a hard deadline, which it can never go past (the time limit minus Consts.TIME_MARGIN), and a target,
+ * which depends on the phase of the game. In the opening, a deeper search changes the move we play far less often,
+ * so we aim to use less of our time there. After each iteration, the time the next one will take is predicted from the
+ * effective branching factor (how many times more nodes each iteration needs than the one before). If the next
+ * iteration would not finish before the hard deadline, or we are already past the target, it is not started,
+ * as an iteration that is aborted part way through is wasted.
+ */
+public class TimeManager {
+
+	/**
+	 * The phases of the game, which are given different amounts of time
+	 */
+	public enum Phase { OPENING, MIDGAME, ENDGAME }
+
+	/**
+	 * The effective branching factor assumed until two iterations have been measured
+	 */
+	private static final double DEFAULT_BRANCHING_FACTOR = 4.0;
+
+	/**
+	 * When the search started, the time it aims to finish by, and the time it has to finish by
+	 */
+	private final long start;
+	private final long target;
+	private final long deadline;
+
+	/**
+	 * The number of nodes in the previous iteration, and the measured effective branching factor
+	 */
+	private long previousNodes = 0;
+	private double branchingFactor = DEFAULT_BRANCHING_FACTOR;
+
+	/**
+	 * Creates a time manager for a search that starts now.
+	 * @param state The state being searched, used to work out the phase of the game
+	 * @param t The time limit in milliseconds
+	 */
+	public TimeManager(State state, long t)
+	{
+		this(state, t, 0);
+	}
+
+	/**
+	 * Creates a time manager for a search that starts now, with extra time saved from earlier moves.
+	 * The extra time moves the target later, but never past the hard deadline, which still comes from the time limit.
+	 * @param state The state being searched, used to work out the phase of the game
+	 * @param t The time limit in milliseconds
+	 * @param bonus Extra time for the target in milliseconds
+	 */
+	public TimeManager(State state, long t, long bonus)
+	{
+		this.start = System.nanoTime();
+
+		final long budget = Math.max(0, t - Consts.TIME_MARGIN) * 1_000_000L;
+		this.deadline = start + budget;
+		this.target = start + Math.min(budget, (long) (budget * share(phase(state))) + Math.max(0, bonus) * 1_000_000L);
+	}
+
+	/**
+	 * Works out the phase of the game from the number of empty squares
+	 * @param state The state
+	 * @return The phase of the game
+	 */
+	public static Phase phase(State state)
+	{
+		final int empties = 64 - state.getPlayerTiles() - state.getOpponentTiles();
+
+		if(empties > Consts.OPENING_EMPTIES)
+			return Phase.OPENING;
+		if(empties > Consts.ENDGAME_PHASE_EMPTIES)
+			return Phase.MIDGAME;
+		return Phase.ENDGAME;
+	}
+
+	/**
+	 * The share of the time limit the search aims to use in a phase
+	 */
+	private static double share(Phase phase)
+	{
+		switch(phase)
+		{
+			case OPENING: return Consts.OPENING_TIME_SHARE;
+			case MIDGAME: return Consts.MIDGAME_TIME_SHARE;
+			default: return Consts.ENDGAME_TIME_SHARE;
+		}
+	}
+
+	/**
+	 * Called after each completed iteration to decide whether to start the next one.
+	 * @param iterationNanos How long the iteration took
+	 * @param iterationNodes How many nodes the iteration searched
+	 * @return true if the next iteration should be started; false if the search should stop
+	 */
+	public boolean startNextIteration(long iterationNanos, long iterationNodes)
+	{
+		if(previousNodes > 0 && iterationNodes > 0)
+			branchingFactor = Math.max(1.0, (double) iterationNodes / previousNodes);
+		previousNodes = iterationNodes;
+
+		final long now = System.nanoTime();
+		if(now - target >= 0)
+			return false;
+
+		//Only start the next iteration if we expect it to finish
+		return now + (long) (iterationNanos * branchingFactor) - deadline < 0;
+	}
+
+	/**
+	 * Returns the time (from System.nanoTime) the search has to stop by
+	 * @return The hard deadline of the search
+	 */
+	public long getDeadline() { return deadline; }
+
+	/**
+	 * Returns the time (from System.nanoTime) halfway to the hard deadline. Used to give the endgame solver
+	 * half of the time, so that if it cannot finish there is still time for a normal search.
+	 * @return The time halfway between the start and the hard deadline
+	 */
+	public long getMidpoint() { return start + (deadline - start) / 2; }
+
+	/**
+	 * Returns the time (from System.nanoTime) the search aims to finish by
+	 * @return The target time of the search
+	 */
+	public long getTarget() { return target; }
+
+	/**
+	 * Returns how many milliseconds after the start the search aims to finish by
+	 * @return The target time in milliseconds
+	 */
+	public long targetMillis() { return (target - start) / 1_000_000L; }
+
+	/**
+	 * Returns the most recently measured effective branching factor
+	 * @return The effective branching factor
+	 */
+	public double getBranchingFactor() { return branchingFactor; }
+
+	/**
+	 * Returns how many milliseconds have passed since the search started
+	 * @return The elapsed time in milliseconds
+	 */
+	public long elapsedMillis() { return (System.nanoTime() - start) / 1_000_000L; }
+}
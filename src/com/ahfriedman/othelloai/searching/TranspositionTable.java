@@ -0,0 +1,220 @@
+package com.ahfriedman.othelloai.searching;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size transposition table used to remember the results of searches between iterations and between moves.
+ * <br />
+ * Entries are packed into a pair of longs: the data (score, bound, depth, best move and age) and the key XORed with the data.
+ * A reader only accepts an entry if the two halves XOR back to the key it is looking for, so if another thread
+ * was part way through writing the entry, the entry is just treated as a miss. This lets several search threads
+ * share the table without any locks.
+ * <br />
+ * The table is split into buckets of two entries. When storing, an entry for the same key is replaced, otherwise the
+ * entry from an older search or with the shallower depth is replaced, so deep results survive until they become stale.
+ */
+public class TranspositionTable {
+
+	/**
+	 * Bound types. NONE is only ever seen on an empty entry, so a packed entry of 0 can be used as a miss.
+	 */
+	public static final int NONE = 0;
+	public static final int EXACT = 1;
+	public static final int LOWER = 2;
+	public static final int UPPER = 3;
+
+	/**
+	 * Move stored when an entry does not have a best move (such as a pass)
+	 */
+	public static final int NO_MOVE = 64;
+
+	/**
+	 * Number of bytes used by each entry (the key and the data)
+	 */
+	private static final int ENTRY_BYTES = 16;
+
+	/*
+	 * Layout of the data long:
+	 * bits  0-31: score (float bits)
+	 * bits 32-39: depth
+	 * bits 40-41: bound
+	 * bits 42-48: best move (0-63, or NO_MOVE)
+	 * bits 49-56: age
+	 */
+	private static final int DEPTH_SHIFT = 32;
+	private static final int BOUND_SHIFT = 40;
+	private static final int MOVE_SHIFT = 42;
+	private static final int AGE_SHIFT = 49;
+
+	/**
+	 * Stores the key XORed with the data for each entry
+	 */
+	private final long[] keys;
+
+	/**
+	 * Stores the packed data for each entry
+	 */
+	private final long[] data;
+
+	/**
+	 * Mask used to turn a key into a bucket index
+	 */
+	private final int bucketMask;
+
+	/**
+	 * The age of the current search. Entries with a different age are from an older search, and are replaced first.
+	 */
+	private volatile int age = 0;
+
+	/**
+	 * Constructs a new table that uses (at most) the given amount of memory.
+	 * @param megabytes The memory budget of the table in megabytes
+	 */
+	public TranspositionTable(int megabytes)
+	{
+		final long budget = Math.max(1, megabytes) * 1024L * 1024L;
+
+		//Use the largest power of two number of buckets that fits in the budget so that indexing is just a mask
+		int buckets = Integer.highestOneBit((int) Math.min(budget / (2 * ENTRY_BYTES), 1 << 29));
+		buckets = Math.max(buckets, 1);
+
+		this.bucketMask = buckets - 1;
+		this.keys = new long[2 * buckets];
+		this.data = new long[2 * buckets];
+	}
+
+	/**
+	 * Looks up the entry for a key.
+	 * @param key The hash of the position
+	 * @return The packed entry, or 0 if there is no entry for the key. Use the static accessors to read it.
+	 */
+	public long probe(long key)
+	{
+		final int i = index(key);
+
+		//Read the data first, and only trust it if it matches up with the key
+		final long d0 = data[i];
+		if((keys[i] ^ d0) == key && d0 != 0)
+			return d0;
+
+		final long d1 = data[i + 1];
+		if((keys[i + 1] ^ d1) == key && d1 != 0)
+			return d1;
+
+		return 0;
+	}
+
+	/**
+	 * Stores the result of a search.
+	 * @param key The hash of the position
+	 * @param score The score found
+	 * @param bound Whether the score is EXACT, a LOWER bound or an UPPER bound
+	 * @param depth The depth that was searched
+	 * @param move The best move found (r * 8 + c), or NO_MOVE
+	 */
+	public void store(long key, float score, int bound, int depth, int move)
+	{
+		final int i = index(key);
+		final int currentAge = this.age;
+
+		int slot = -1;
+
+		//If we already have an entry for this key, then overwrite that one
+		for(int j = i; j < i + 2; j++)
+		{
+			final long d = data[j];
+			if((keys[j] ^ d) == key && d != 0)
+			{
+				//Keep a deeper result from this search unless the new one is exact
+				if(depth(d) > depth && age(d) == currentAge && bound != EXACT)
+					return;
+
+				//Keep the old best move if we do not have one
+				if(move == NO_MOVE)
+					move = move(d);
+
+				slot = j;
+				break;
+			}
+		}
+
+		//Otherwise, replace whichever entry is worth less: stale entries first, then the shallower one
+		if(slot == -1)
+			slot = (worth(data[i], currentAge) <= worth(data[i + 1], currentAge)) ? i : i + 1;
+
+		final long d = pack(score, bound, depth, move, currentAge);
+		data[slot] = d;
+		keys[slot] = key ^ d;
+	}
+
+	/**
+	 * Used to rank entries for replacement. Empty entries are worth the least, followed by entries from older searches.
+	 */
+	private static int worth(long d, int currentAge)
+	{
+		if(d == 0)
+			return -1;
+
+		return (age(d) == currentAge) ? 256 + depth(d) : depth(d);
+	}
+
+	/**
+	 * Called at the start of every search so that entries from previous searches can be told apart and replaced first.
+	 * Entries are still used by later searches until they are replaced.
+	 */
+	public void newSearch() { age = (age + 1) & 0xFF; }
+
+	/**
+	 * Removes every entry from the table.
+	 */
+	public void clear()
+	{
+		Arrays.fill(keys, 0);
+		Arrays.fill(data, 0);
+	}
+
+	/**
+	 * Returns the number of entries the table can store
+	 * @return The number of entries the table can store
+	 */
+	public int capacity() { return data.length; }
+
+	/**
+	 * Converts a key into the index of the first entry of its bucket
+	 */
+	private int index(long key) { return ((int) (key ^ (key >>> 32)) & bucketMask) << 1; }
+
+	private static long pack(float score, int bound, int depth, int move, int age)
+	{
+		return (Float.floatToRawIntBits(score) & 0xFFFFFFFFL) |
+				((long) Math.min(depth, 255) << DEPTH_SHIFT) |
+				((long) bound << BOUND_SHIFT) |
+				((long) move << MOVE_SHIFT) |
+				((long) age << AGE_SHIFT);
+	}
+
+	/**
+	 * Reads the score from a packed entry
+	 */
+	public static float score(long entry) { return Float.intBitsToFloat((int) entry); }
+
+	/**
+	 * Reads the depth from a packed entry
+	 */
+	public static int depth(long entry) { return (int) (entry >>> DEPTH_SHIFT) & 0xFF; }
+
+	/**
+	 * Reads the bound type from a packed entry
+	 */
+	public static int bound(long entry) { return (int) (entry >>> BOUND_SHIFT) & 0x3; }
+
+	/**
+	 * Reads the best move from a packed entry
+	 */
+	public static int move(long entry) { return (int) (entry >>> MOVE_SHIFT) & 0x7F; }
+
+	/**
+	 * Reads the age from a packed entry
+	 */
+	private static int age(long entry) { return (int) (entry >>> AGE_SHIFT) & 0xFF; }
+}
@@ -1,5 +1,7 @@
 package com.ahfriedman.othelloai.utils;
 
+import com.ahfriedman.othelloai.searching.SearchAlgorithm;
+
 /**
  * This package is used to store program constants
  */
@@ -10,6 +12,132 @@ public class Consts {
 	 */
 	public static final long timelimit = 1_000; //FIXME: CHANGE
 	
+	/**
+	 * Memory budget for the search's transposition table in megabytes
+	 */
+	public static int TT_MEGABYTES = 64; 
+	
+	/**
+	 * Memory budget for the cache of evaluations used by the default evaluator in megabytes (see CachedEvaluator). 
+	 * 0 turns the cache off. 
+	 */
+	public static int EVAL_CACHE_MEGABYTES = 16; 
+	
+	/**
+	 * The evaluation cache keys positions with at most this many discs by their canonical hash, so that symmetric copies 
+	 * share an evaluation (see CachedEvaluator). Symmetric copies only come up near the opening, and working out the 
+	 * canonical hash costs more than a probe, so later positions are keyed by their plain hash. 0 turns this off. 
+	 */
+	public static int EVAL_CACHE_CANONICAL_DISCS = 12; 
+	
+	/**
+	 * The number of threads used to search. More than 1 turns on Lazy SMP (see IterativeSearch). 
+	 */
+	public static int SEARCH_THREADS = 1; 
+	
+	/**
+	 * The least remaining depth at which the parallel search (IterativeSearch.ParallelABSearch) splits a node into tasks. 
+	 * Below this, a node is searched by a single thread. 
+	 */
+	public static int SPLIT_DEPTH = 4; 
+	
+	/**
+	 * The least remaining depth at which the search orders moves with the full evaluation function. 
+	 * Below this, moves are ordered with the cheaper killer and history heuristics. 
+	 */
+	public static int EVAL_ORDER_DEPTH = 3; 
+	
+	/**
+	 * The algorithm used by the search when one is not given 
+	 */
+	public static SearchAlgorithm SEARCH_ALGORITHM = SearchAlgorithm.ALPHA_BETA; 
+	
+	/**
+	 * Half the width of the aspiration window around the previous iteration's score. 0 turns aspiration windows off. 
+	 */
+	public static float ASPIRATION_WINDOW = 5.0f; 
+	
+	/**
+	 * How much a side of the aspiration window is multiplied by when the score falls outside of it 
+	 */
+	public static float ASPIRATION_GROWTH = 4.0f; 
+	
+	/**
+	 * Once a side of the aspiration window is wider than this, it is opened up completely 
+	 */
+	public static float ASPIRATION_LIMIT = 400.0f; 
+	
+	/**
+	 * The number of empty squares the endgame solver can solve exactly in one second. 
+	 * The number for the actual time limit is worked out from this (see EndgameSolver.exactEmpties). 
+	 */
+	public static int ENDGAME_EMPTIES = 14; 
+	
+	/**
+	 * How many times longer the endgame solver takes for each extra empty square
+	 */
+	public static double ENDGAME_GROWTH = 3.0; 
+	
+	/**
+	 * How many more empty squares than an exact solve a win/loss/draw solve can handle in the same time
+	 */
+	public static int WLD_EXTRA_EMPTIES = 2; 
+	
+	/**
+	 * Time in milliseconds kept back from every turn's time limit, so that we never go over it 
+	 */
+	public static long TIME_MARGIN = 150; 
+	
+	/**
+	 * The number of nodes the search visits between reads of the clock 
+	 */
+	public static int NODES_PER_TIME_CHECK = 256; 
+	
+	/**
+	 * The phases of the game for the time manager. With more empty squares than OPENING_EMPTIES, we are in the opening. 
+	 * With ENDGAME_PHASE_EMPTIES or fewer, we are in the endgame. 
+	 */
+	public static int OPENING_EMPTIES = 44; 
+	public static int ENDGAME_PHASE_EMPTIES = 24; 
+	
+	/**
+	 * The share of each turn's time the search aims to use in each phase of the game
+	 */
+	public static double OPENING_TIME_SHARE = 0.6; 
+	public static double MIDGAME_TIME_SHARE = 1.0; 
+	public static double ENDGAME_TIME_SHARE = 1.0; 
+	
+	/**
+	 * Whether to search on the opponent's time while we wait for their move in referee games
+	 */
+	public static boolean PONDER = true; 
+	
+	/**
+	 * The opening book file, made by OpeningBookBuilder. If there is no file at this path, every move is searched. 
+	 */
+	public static String BOOK_FILE = "book.bin"; 
+	
+	/**
+	 * Time saved by book moves is spread over this many of the moves after the book
+	 */
+	public static int BANKED_TIME_MOVES = 4; 
+	
+	/**
+	 * The pattern weights file, made by PatternTrainer. If there is a file at this path, states are evaluated with 
+	 * PatternEvaluator instead of State.getEvaluation. 
+	 */
+	public static String PATTERN_FILE = "patterns.bin"; 
+	
+	/**
+	 * The number of phases PatternTrainer splits the game into, each with its own weights
+	 */
+	public static int PATTERN_PHASES = 12; 
+	
+	/**
+	 * The number of empty squares at which PatternTrainer solves its self-play games
+	 */
+	public static int TRAIN_SOLVE_EMPTIES = 14; 
+	
 	/**
 	 * Name of the program 
 	 */
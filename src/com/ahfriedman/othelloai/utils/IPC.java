@@ -30,7 +30,7 @@ public class IPC {
 	private static boolean INITIALIZED; 
 	
 	private static Agent agent = null; 
-	{
+	static {
 		try {
 			agent = (new File("1633876307589-0.5546875-2.0.bin-local2")).exists() ? GeneticNNAgent.loadFromFile("1633876307589-0.5546875-2.0.bin-local2") : new SearchAgent(Consts.timelimit);
 		} 
@@ -118,6 +118,8 @@ public class IPC {
 	 * @throws IOException
 	 */
 	private static void GameOver() throws IOException {
+		agent.StopPondering();
+		
 		//Read the move file, and process it. If it turns out that it was our move, then nothing will happen from this function call. 
 		final String line = readMoveFile(); 
 		
@@ -234,6 +236,9 @@ public class IPC {
 		}
 
 
+		//Stop thinking on the opponent's time, now that we know their move. What we found is kept in the search's table. 
+		agent.StopPondering();
+		
 		//Process the line, and then take our turn. 
 		ProcessOpponentMove(line); 	
 		RunMove(); 
@@ -257,6 +262,7 @@ public class IPC {
 			writer.close();
 
 			OthelloAI.STATE.pass();
+			agent.Ponder(OthelloAI.STATE);
 
 			return;
 		}
@@ -268,6 +274,9 @@ public class IPC {
 		writer.write(Consts.PROGRAM_NAME + " " + State.byteCoordinatesToMoveString(move));
 		writer.flush();
 		writer.close();
+		
+		//Think about our next move while the opponent thinks about theirs
+		agent.Ponder(OthelloAI.STATE);
 	}
 
 }
@@ -0,0 +1,128 @@
+package com.ahfriedman.othelloai.utils;
+
+/**
+ * Fixed-size buffer of scored moves used to order moves during a search.
+ * <br />
+ * Moves are stored as square indices (r * 8 + c) with their scores in parallel primitive arrays, so unlike
+ * APQ nothing is boxed or allocated once the buffer exists. The search keeps one buffer per ply and reuses it
+ * for every node at that ply. Moves are handed out best first with a selection sort, which is cheaper than
+ * a heap for the handful of moves in an Othello position, especially when a cutoff means only the first
+ * one or two moves are ever used.
+ */
+public class MoveBuffer {
+
+	/**
+	 * Returned by popMax and popMin when there are no moves left
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * The most moves a buffer can hold. There are never more than 64 squares to move to.
+	 */
+	private static final int CAPACITY = 64;
+
+	/**
+	 * The squares of the moves
+	 */
+	private final int[] moves = new int[CAPACITY];
+
+	/**
+	 * The score of each move
+	 */
+	private final float[] scores = new float[CAPACITY];
+
+	/**
+	 * The number of moves in the buffer
+	 */
+	private int size = 0;
+
+	/**
+	 * The number of moves that have already been handed out. Moves before this index are sorted.
+	 */
+	private int next = 0;
+
+	/**
+	 * Removes every move from the buffer.
+	 */
+	public void clear()
+	{
+		size = 0;
+		next = 0;
+	}
+
+	/**
+	 * Adds a move to the buffer.
+	 * @param move The square of the move
+	 * @param score The score used to order the move
+	 */
+	public void add(int move, float score)
+	{
+		moves[size] = move;
+		scores[size] = score;
+		size++;
+	}
+
+	/**
+	 * Removes and returns the move with the highest score.
+	 * @return The square of the move, or NONE if there are no moves left
+	 */
+	public int popMax()
+	{
+		if(next >= size)
+			return NONE;
+
+		int best = next;
+		for(int i = next + 1; i < size; i++)
+			if(scores[i] > scores[best])
+				best = i;
+
+		return take(best);
+	}
+
+	/**
+	 * Removes and returns the move with the lowest score.
+	 * @return The square of the move, or NONE if there are no moves left
+	 */
+	public int popMin()
+	{
+		if(next >= size)
+			return NONE;
+
+		int best = next;
+		for(int i = next + 1; i < size; i++)
+			if(scores[i] < scores[best])
+				best = i;
+
+		return take(best);
+	}
+
+	/**
+	 * Swaps the move at the given index to the front of the unsorted part of the buffer and hands it out.
+	 */
+	private int take(int i)
+	{
+		final int move = moves[i];
+		final float score = scores[i];
+
+		moves[i] = moves[next];
+		scores[i] = scores[next];
+
+		moves[next] = move;
+		scores[next] = score;
+		next++;
+
+		return move;
+	}
+
+	/**
+	 * Used to determine if the buffer has no moves in it (including ones that were already handed out)
+	 * @return true if no moves were added since the last clear. False otherwise.
+	 */
+	public boolean isEmpty() { return size == 0; }
+
+	/**
+	 * Used to get the number of moves in the buffer
+	 * @return The number of moves added since the last clear
+	 */
+	public int size() { return size; }
+}